@@ -0,0 +1,128 @@
+package com.nganyaexperience.backend.config;
+
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Shared outbound HTTP clients (Daraja), both Apache HttpClient 5 with the same settings.
+ * Pooled keep-alive connections (TLS sessions are reused), bounded per route, and every call has
+ * connect / pool-wait / response timeouts so a slow upstream cannot hold a request thread forever.
+ * The blocking client (RestTemplate) and the non-blocking one (DarajaAsyncClient) need separate pools in
+ * HttpClient 5; each is published as httpcomponents.httpclient.pool.* metrics (outbound / outbound-async).
+ */
+@Configuration
+public class HttpClientConfig {
+
+    @Value("${app.http.max-connections:50}")
+    private int maxConnections;
+
+    @Value("${app.http.max-connections-per-route:20}")
+    private int maxConnectionsPerRoute;
+
+    @Value("${app.http.connect-timeout-ms:5000}")
+    private long connectTimeoutMs;
+
+    @Value("${app.http.response-timeout-ms:30000}")
+    private long responseTimeoutMs;
+
+    @Value("${app.http.pool-wait-timeout-ms:2000}")
+    private long poolWaitTimeoutMs;
+
+    @Value("${app.http.connection-ttl-seconds:300}")
+    private long connectionTtlSeconds;
+
+    @Value("${app.http.idle-evict-seconds:30}")
+    private long idleEvictSeconds;
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager outboundConnectionManager() {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultConnectionConfig(connectionConfig())
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient outboundHttpClient(PoolingHttpClientConnectionManager outboundConnectionManager) {
+        return HttpClients.custom()
+                .setConnectionManager(outboundConnectionManager)
+                .setDefaultRequestConfig(requestConfig())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofSeconds(idleEvictSeconds))
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public PoolingAsyncClientConnectionManager outboundAsyncConnectionManager() {
+        return PoolingAsyncClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultConnectionConfig(connectionConfig())
+                // One request per connection, like the blocking pool, so the limits and metrics mean the same
+                .setDefaultTlsConfig(TlsConfig.custom().setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_1).build())
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpAsyncClient outboundAsyncHttpClient(PoolingAsyncClientConnectionManager outboundAsyncConnectionManager) {
+        CloseableHttpAsyncClient client = HttpAsyncClients.custom()
+                .setConnectionManager(outboundAsyncConnectionManager)
+                .setDefaultRequestConfig(requestConfig())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofSeconds(idleEvictSeconds))
+                .build();
+        client.start();
+        return client;
+    }
+
+    @Bean
+    public RestTemplate outboundRestTemplate(CloseableHttpClient outboundHttpClient) {
+        return new RestTemplate(new HttpComponentsClientHttpRequestFactory(outboundHttpClient));
+    }
+
+    @Bean
+    public MeterBinder outboundPoolMetrics(PoolingHttpClientConnectionManager outboundConnectionManager) {
+        return new PoolingHttpClientConnectionManagerMetricsBinder(outboundConnectionManager, "outbound");
+    }
+
+    @Bean
+    public MeterBinder outboundAsyncPoolMetrics(PoolingAsyncClientConnectionManager outboundAsyncConnectionManager) {
+        return new PoolingHttpClientConnectionManagerMetricsBinder(outboundAsyncConnectionManager, "outbound-async");
+    }
+
+    private ConnectionConfig connectionConfig() {
+        return ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+                .setSocketTimeout(Timeout.ofMilliseconds(responseTimeoutMs))
+                .setTimeToLive(TimeValue.ofSeconds(connectionTtlSeconds))
+                .setValidateAfterInactivity(TimeValue.ofSeconds(idleEvictSeconds))
+                .build();
+    }
+
+    private RequestConfig requestConfig() {
+        return RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(poolWaitTimeoutMs))
+                .setResponseTimeout(Timeout.ofMilliseconds(responseTimeoutMs))
+                .build();
+    }
+}
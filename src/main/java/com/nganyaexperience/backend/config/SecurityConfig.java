@@ -54,13 +54,16 @@ public class SecurityConfig {
                         .requestMatchers(HttpMethod.OPTIONS, "/**").permitAll()
 
                         // Public endpoints
-                        .requestMatchers("/health", "/actuator/**").permitAll()
+                        .requestMatchers("/health", "/actuator/health/**").permitAll()
+                        // Metrics & co. expose internals: never anonymous
+                        .requestMatchers("/actuator/**").authenticated()
                         .requestMatchers("/api/auth/**").permitAll()
                         .requestMatchers(HttpMethod.GET, "/api/events/**").permitAll()
                         .requestMatchers(HttpMethod.GET, "/api/nganyas/**").permitAll()
 
                         // ✅ Customer booking + Daraja endpoints are PUBLIC (customers don't login)
                         .requestMatchers(HttpMethod.POST, "/api/bookings/**").permitAll()
+                        .requestMatchers(HttpMethod.GET, "/api/bookings/queue/**").permitAll()
                         .requestMatchers("/api/payments/**").permitAll()
 
                         // (If you later add customer accounts, you can protect customer endpoints then)
@@ -89,7 +92,7 @@ public class SecurityConfig {
 
         cfg.setAllowedMethods(List.of("GET", "POST", "PUT", "DELETE", "OPTIONS"));
         cfg.setAllowedHeaders(List.of("*"));
-        cfg.setExposedHeaders(List.of("Authorization"));
+        cfg.setExposedHeaders(List.of("Authorization", "ETag", "Idempotent-Replayed"));
         cfg.setAllowCredentials(false); // JWT in headers, not cookies
         cfg.setMaxAge(3600L);
 
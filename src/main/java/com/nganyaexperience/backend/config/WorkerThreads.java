@@ -0,0 +1,26 @@
+package com.nganyaexperience.backend.config;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factories for the app's own worker pools.
+ * With spring.threads.virtual.enabled=true the pools get virtual threads (pool size still bounds
+ * how many tasks run at once, e.g. DB connections in use); otherwise named daemon platform threads.
+ */
+public final class WorkerThreads {
+
+    private WorkerThreads() {
+    }
+
+    public static ThreadFactory factory(String namePrefix, boolean virtual) {
+        if (virtual) return Thread.ofVirtual().name(namePrefix, 1).factory();
+
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, namePrefix + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
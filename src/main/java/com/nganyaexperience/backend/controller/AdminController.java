@@ -2,6 +2,7 @@ package com.nganyaexperience.backend.controller;
 
 import com.nganyaexperience.backend.entity.Booking;
 import com.nganyaexperience.backend.repository.BookingRepository;
+import com.nganyaexperience.backend.service.BookingService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.*;
 
@@ -14,18 +15,16 @@ import java.util.List;
 public class AdminController {
 
     private final BookingRepository bookingRepository;
+    private final BookingService bookingService;
 
     @GetMapping("/bookings")
     public List<Booking> getAllBookings() {
         return bookingRepository.findAll();
     }
 
+    // Manual payment: same path as an M-Pesa callback (takes the seat, issues the ticket code)
     @PutMapping("/bookings/{id}/pay")
     public Booking markAsPaid(@PathVariable Long id) {
-        Booking booking = bookingRepository.findById(id)
-                .orElseThrow(() -> new RuntimeException("Booking not found"));
-
-        booking.setPaymentStatus(Booking.PaymentStatus.PAID);
-        return bookingRepository.save(booking);
+        return bookingService.confirmPaid(id);
     }
 }
@@ -4,9 +4,12 @@ import com.nganyaexperience.backend.dto.AdminEventRequest;
 import com.nganyaexperience.backend.dto.TicketTypeRequest;
 import com.nganyaexperience.backend.entity.Event;
 import com.nganyaexperience.backend.entity.TicketType;
+import com.nganyaexperience.backend.inventory.InventoryEngine;
+import com.nganyaexperience.backend.payments.PaymentRoutingRegistry;
 import com.nganyaexperience.backend.repository.BookingRepository;
 import com.nganyaexperience.backend.repository.EventRepository;
 import com.nganyaexperience.backend.service.CloudinaryService;
+import com.nganyaexperience.backend.service.EventCatalogCache;
 import lombok.RequiredArgsConstructor;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
@@ -26,6 +29,9 @@ public class AdminEventController {
     private final EventRepository eventRepository;
     private final BookingRepository bookingRepository;
     private final CloudinaryService cloudinaryService;
+    private final EventCatalogCache catalogCache;
+    private final InventoryEngine inventory;
+    private final PaymentRoutingRegistry routingRegistry;
 
     // ✅ CREATE EVENT
     @PostMapping(consumes = "multipart/form-data")
@@ -58,19 +64,22 @@ public class AdminEventController {
                 .tickets(new ArrayList<>())
                 .build();
 
-        Event saved = eventRepository.save(event);
-
         for (TicketTypeRequest t : tickets) {
             TicketType ticket = TicketType.builder()
                     .name(t.getName())
                     .price(t.getPrice())
                     .capacity(t.getCapacity())
-                    .event(saved)
+                    .event(event)
                     .build();
-            saved.getTickets().add(ticket);
+            event.getTickets().add(ticket);
         }
 
-        return eventRepository.save(saved);
+        // One save: the tickets cascade, and with sequence ids all inserts go out as one JDBC batch
+        Event result = eventRepository.save(event);
+        result.getTickets().forEach(inventory::track);
+        catalogCache.invalidate();
+        routingRegistry.refresh();
+        return result;
     }
 
     // ✅ DELETE EVENT
@@ -86,5 +95,8 @@ public class AdminEventController {
 
         cloudinaryService.deleteImage(event.getPosterUrl());
         eventRepository.delete(event);
+        inventory.forget(event.getTickets().stream().map(TicketType::getId).toList());
+        catalogCache.invalidate();
+        routingRegistry.refresh();
     }
 }
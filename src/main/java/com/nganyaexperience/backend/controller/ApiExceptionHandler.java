@@ -1,5 +1,7 @@
 package com.nganyaexperience.backend.controller;
 
+import com.nganyaexperience.backend.payments.DarajaUnavailableException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.BadCredentialsException;
@@ -26,4 +28,12 @@ public class ApiExceptionHandler {
                 .orElse("Invalid request");
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("message", msg));
     }
+
+    // Daraja circuit open / bulkhead full: fail fast instead of queueing request threads
+    @ExceptionHandler(DarajaUnavailableException.class)
+    public ResponseEntity<Map<String, String>> handleDarajaUnavailable(DarajaUnavailableException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(Map.of("error", e.getMessage()));
+    }
 }
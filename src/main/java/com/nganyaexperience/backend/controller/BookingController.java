@@ -1,10 +1,17 @@
 package com.nganyaexperience.backend.controller;
 
 import com.nganyaexperience.backend.entity.Booking;
+import com.nganyaexperience.backend.service.AdmissionQueue;
 import com.nganyaexperience.backend.service.BookingService;
+import com.nganyaexperience.backend.service.IdempotencyService;
+import lombok.Data;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.Map;
+
 @RestController
 @RequestMapping("/api/bookings")
 @RequiredArgsConstructor
@@ -12,14 +19,82 @@ import org.springframework.web.bind.annotation.*;
 public class BookingController {
 
     private final BookingService bookingService;
+    private final AdmissionQueue admissionQueue;
+    private final IdempotencyService idempotencyService;
+
+    @Data
+    public static class JoinQueueRequest {
+        private Long eventId;
+    }
 
+    // ✅ Send an Idempotency-Key header to retry safely: the same key returns the same booking
     @PostMapping
-    public Booking createBooking(@RequestBody BookingRequest request) {
-        return bookingService.createBooking(
-                request.getCustomerName(),
-                request.getPhoneNumber(),
-                request.getEventId(),
-                request.getTicketTypeId()
+    public ResponseEntity<?> createBooking(
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey,
+            @RequestBody BookingRequest request
+    ) {
+        String fingerprint = request.getEventId() + "|" + request.getTicketTypeId() + "|"
+                + request.getQuantity() + "|" + request.getPhoneNumber();
+        return idempotencyService.execute("booking", idempotencyKey, fingerprint, () -> create(request));
+    }
+
+    private ResponseEntity<?> create(BookingRequest request) {
+        if (admissionQueue.isEnabled()) {
+            AdmissionQueue.Status s = admissionQueue.consume(request.getQueueToken(), request.getEventId());
+            if (s == null) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                        .body(Map.of("error", "Valid queueToken for this event required"));
+            }
+            if (s.state() != AdmissionQueue.State.ADMITTED) {
+                return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(toBody(s));
+            }
+        }
+
+        try {
+            Booking booking = bookingService.createBooking(
+                    request.getCustomerName(),
+                    request.getPhoneNumber(),
+                    request.getEventId(),
+                    request.getTicketTypeId(),
+                    request.getQuantity()
+            );
+            return ResponseEntity.ok(booking);
+        } catch (IllegalArgumentException e) {
+            admissionQueue.giveBack(request.getQueueToken());
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        } catch (RuntimeException e) {
+            // Nothing was reserved: let the same admitted client try again
+            admissionQueue.giveBack(request.getQueueToken());
+            throw e;
+        }
+    }
+
+    // ✅ Join the waiting room for an event (flash sales)
+    @PostMapping("/queue")
+    public ResponseEntity<?> joinQueue(@RequestBody JoinQueueRequest request) {
+        if (request.getEventId() == null) return ResponseEntity.badRequest().body(Map.of("error", "eventId required"));
+        try {
+            return ResponseEntity.ok(toBody(admissionQueue.join(request.getEventId())));
+        } catch (AdmissionQueue.QueueFullException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    // ✅ Poll position; state becomes ADMITTED when the client may POST /api/bookings
+    @GetMapping("/queue/{token}")
+    public ResponseEntity<?> queueStatus(@PathVariable String token) {
+        AdmissionQueue.Status s = admissionQueue.poll(token);
+        if (s == null) return ResponseEntity.status(404).body(Map.of("error", "Unknown queue token"));
+        return ResponseEntity.ok(toBody(s));
+    }
+
+    private static Map<String, Object> toBody(AdmissionQueue.Status s) {
+        return Map.of(
+                "token", s.token(),
+                "eventId", s.eventId(),
+                "state", s.state(),
+                "position", s.position(),
+                "etaSeconds", s.etaSeconds()
         );
     }
 }
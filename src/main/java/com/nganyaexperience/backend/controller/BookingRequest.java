@@ -10,4 +10,8 @@ public class BookingRequest {
     private String phoneNumber;
     private Long eventId;
     private Long ticketTypeId;
+    // Seats in one booking (defaults to 1)
+    private Integer quantity;
+    // Admitted token from POST /api/bookings/queue (required when app.admission.enabled=true)
+    private String queueToken;
 }
@@ -0,0 +1,219 @@
+package com.nganyaexperience.backend.controller;
+
+import com.nganyaexperience.backend.config.WorkerThreads;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for Safaricom Daraja, for load tests (profile daraja-sim, never in production).
+ * <p>
+ * Implements OAuth, STK push and STK Push Query under /daraja-sim. Each push gets a random outcome
+ * (success / failure / timeout) from app.daraja-sim.*-rate, and its callback is POSTed to the push's
+ * CallBackURL after a random delay; some callbacks are delivered twice to exercise idempotency.
+ * Timeouts never call back, so only the reconciler can settle them (query answers ResultCode 1037).
+ * Transactions are forgotten app.daraja-sim.retention-seconds after they settle (queries then get 400).
+ */
+@Slf4j
+@Profile("daraja-sim")
+@RestController
+@RequestMapping("/daraja-sim")
+public class DarajaSimulatorController {
+
+    private static final DateTimeFormatter TX_DATE = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    private enum Outcome { SUCCESS, FAILURE, TIMEOUT }
+
+    private record SimTx(Outcome outcome, int amount, String phone, String merchantRequestId, long settleAtMillis) {
+    }
+
+    private final RestTemplate restTemplate;
+    private final ScheduledExecutorService callbacks;
+    private final Map<String, SimTx> transactions = new ConcurrentHashMap<>();
+    private final AtomicLong receipts = new AtomicLong();
+
+    private final long latencyMs;
+    private final double successRate;
+    private final double failureRate;
+    private final double duplicateRate;
+    private final long callbackDelayMinMs;
+    private final long callbackDelayMaxMs;
+    private final long retentionMs;
+
+    public DarajaSimulatorController(
+            RestTemplate restTemplate,
+            @Value("${app.daraja-sim.latency-ms:150}") long latencyMs,
+            @Value("${app.daraja-sim.success-rate:0.8}") double successRate,
+            @Value("${app.daraja-sim.failure-rate:0.15}") double failureRate,
+            @Value("${app.daraja-sim.duplicate-rate:0.05}") double duplicateRate,
+            @Value("${app.daraja-sim.callback-delay-min-ms:2000}") long callbackDelayMinMs,
+            @Value("${app.daraja-sim.callback-delay-max-ms:8000}") long callbackDelayMaxMs,
+            @Value("${app.daraja-sim.callback-threads:4}") int callbackThreads,
+            @Value("${app.daraja-sim.retention-seconds:900}") long retentionSeconds,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads
+    ) {
+        this.restTemplate = restTemplate;
+        this.latencyMs = latencyMs;
+        this.successRate = successRate;
+        this.failureRate = failureRate;
+        this.duplicateRate = duplicateRate;
+        this.callbackDelayMinMs = callbackDelayMinMs;
+        this.callbackDelayMaxMs = Math.max(callbackDelayMinMs, callbackDelayMaxMs);
+        this.retentionMs = retentionSeconds * 1000;
+        this.callbacks = Executors.newScheduledThreadPool(callbackThreads,
+                WorkerThreads.factory("daraja-sim-callback-", virtualThreads));
+        // A load test pushes millions of transactions: keep the map bounded
+        callbacks.scheduleWithFixedDelay(this::evictSettled, 60, 60, TimeUnit.SECONDS);
+        log.warn("Daraja SIMULATOR active at /daraja-sim (success {}, failure {}, timeout {}, duplicate {})",
+                successRate, failureRate, Math.max(0, 1 - successRate - failureRate), duplicateRate);
+    }
+
+    @GetMapping("/oauth/v1/generate")
+    public Map<String, Object> oauth() {
+        simulateLatency();
+        return Map.of("access_token", "sim-" + UUID.randomUUID(), "expires_in", "3599");
+    }
+
+    @PostMapping("/mpesa/stkpush/v1/processrequest")
+    public ResponseEntity<?> processRequest(@RequestBody Map<String, Object> req) {
+        simulateLatency();
+
+        Object callbackUrl = req.get("CallBackURL");
+        Object amount = req.get("Amount");
+        if (callbackUrl == null || amount == null || req.get("PhoneNumber") == null) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "errorCode", "400.002.02",
+                    "errorMessage", "Bad Request - Invalid request"
+            ));
+        }
+
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        double roll = rnd.nextDouble();
+        Outcome outcome = roll < successRate ? Outcome.SUCCESS
+                : roll < successRate + failureRate ? Outcome.FAILURE
+                : Outcome.TIMEOUT;
+
+        String merchantRequestId = "sim-" + rnd.nextInt(10000, 99999) + "-" + rnd.nextInt(10000000, 99999999) + "-1";
+        String checkoutRequestId = "ws_CO_SIM_" + UUID.randomUUID().toString().replace("-", "");
+        long delay = rnd.nextLong(callbackDelayMinMs, callbackDelayMaxMs + 1);
+
+        SimTx tx = new SimTx(outcome, (int) Double.parseDouble(String.valueOf(amount)), String.valueOf(req.get("PhoneNumber")),
+                merchantRequestId, System.currentTimeMillis() + delay);
+        transactions.put(checkoutRequestId, tx);
+
+        if (outcome != Outcome.TIMEOUT) {
+            String url = String.valueOf(callbackUrl);
+            callbacks.schedule(() -> sendCallback(url, checkoutRequestId, tx), delay, TimeUnit.MILLISECONDS);
+            if (rnd.nextDouble() < duplicateRate) {
+                callbacks.schedule(() -> sendCallback(url, checkoutRequestId, tx), delay + rnd.nextLong(100, 3000), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        return ResponseEntity.ok(Map.of(
+                "MerchantRequestID", merchantRequestId,
+                "CheckoutRequestID", checkoutRequestId,
+                "ResponseCode", "0",
+                "ResponseDescription", "Success. Request accepted for processing",
+                "CustomerMessage", "Success. Request accepted for processing"
+        ));
+    }
+
+    @PostMapping("/mpesa/stkpushquery/v1/query")
+    public ResponseEntity<?> query(@RequestBody Map<String, Object> req) {
+        simulateLatency();
+
+        SimTx tx = transactions.get(String.valueOf(req.get("CheckoutRequestID")));
+        if (tx == null) {
+            return ResponseEntity.badRequest().body(Map.of(
+                    "errorCode", "400.002.02",
+                    "errorMessage", "Bad Request - Invalid CheckoutRequestID"
+            ));
+        }
+        if (System.currentTimeMillis() < tx.settleAtMillis()) {
+            return ResponseEntity.status(500).body(Map.of(
+                    "errorCode", "500.001.1001",
+                    "errorMessage", "The transaction is being processed"
+            ));
+        }
+
+        int resultCode = resultCode(tx.outcome());
+        return ResponseEntity.ok(Map.of(
+                "ResponseCode", "0",
+                "ResponseDescription", "The service request has been accepted successsfully",
+                "MerchantRequestID", tx.merchantRequestId(),
+                "CheckoutRequestID", String.valueOf(req.get("CheckoutRequestID")),
+                "ResultCode", String.valueOf(resultCode),
+                "ResultDesc", resultDesc(tx.outcome())
+        ));
+    }
+
+    private void sendCallback(String url, String checkoutRequestId, SimTx tx) {
+        Map<String, Object> stk = new HashMap<>();
+        stk.put("MerchantRequestID", tx.merchantRequestId());
+        stk.put("CheckoutRequestID", checkoutRequestId);
+        stk.put("ResultCode", resultCode(tx.outcome()));
+        stk.put("ResultDesc", resultDesc(tx.outcome()));
+        if (tx.outcome() == Outcome.SUCCESS) {
+            stk.put("CallbackMetadata", Map.of("Item", List.of(
+                    Map.of("Name", "Amount", "Value", tx.amount()),
+                    Map.of("Name", "MpesaReceiptNumber", "Value", "SIM" + String.format("%07d", receipts.incrementAndGet())),
+                    Map.of("Name", "TransactionDate", "Value", Long.parseLong(LocalDateTime.now().format(TX_DATE))),
+                    Map.of("Name", "PhoneNumber", "Value", tx.phone().matches("\\d+") ? Long.parseLong(tx.phone()) : tx.phone())
+            )));
+        }
+
+        try {
+            restTemplate.postForEntity(url, Map.of("Body", Map.of("stkCallback", stk)), String.class);
+        } catch (Exception e) {
+            log.warn("Simulated callback to {} failed: {}", url, e.getMessage());
+        }
+    }
+
+    private void evictSettled() {
+        long cutoff = System.currentTimeMillis() - retentionMs;
+        transactions.values().removeIf(tx -> tx.settleAtMillis() < cutoff);
+    }
+
+    private static int resultCode(Outcome outcome) {
+        return switch (outcome) {
+            case SUCCESS -> 0;
+            case FAILURE -> 1032;
+            case TIMEOUT -> 1037;
+        };
+    }
+
+    private static String resultDesc(Outcome outcome) {
+        return switch (outcome) {
+            case SUCCESS -> "The service request is processed successfully.";
+            case FAILURE -> "Request cancelled by user";
+            case TIMEOUT -> "DS timeout user cannot be reached";
+        };
+    }
+
+    private void simulateLatency() {
+        if (latencyMs <= 0) return;
+        try {
+            Thread.sleep(latencyMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        callbacks.shutdownNow();
+    }
+}
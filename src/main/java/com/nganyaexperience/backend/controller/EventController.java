@@ -1,11 +1,22 @@
 package com.nganyaexperience.backend.controller;
 
+import com.nganyaexperience.backend.dto.EventPage;
 import com.nganyaexperience.backend.entity.Event;
+import com.nganyaexperience.backend.service.CatalogVersion;
+import com.nganyaexperience.backend.service.EventCatalogCache;
 import com.nganyaexperience.backend.service.EventService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
-import java.util.List;
+import java.time.LocalDate;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/events")
@@ -14,14 +25,75 @@ import java.util.List;
 public class EventController {
 
     private final EventService eventService;
+    private final CatalogVersion catalogVersion;
 
+    private static final int MAX_PAGE_SIZE = 100;
+
+    // Hottest public endpoint: writes the pre-encoded snapshot bytes directly.
+    // 304 when the client's ETag matches the catalog version and the representation it would get.
     @GetMapping
-    public List<Event> getAllEvents() {
-        return eventService.getAllEvents();
+    public ResponseEntity<byte[]> getAllEvents(
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            WebRequest webRequest
+    ) {
+        // Version read before the body, so a body is never tagged with a version newer than itself
+        long version = catalogVersion.current();
+
+        // Body chosen first (a snapshot read when cached): the "-gz" ETag only goes with a gzipped body
+        EventCatalogCache.EncodedListing listing = eventService.getAllEventsEncoded();
+        boolean gzip = acceptsGzip(acceptEncoding) && listing.gzip() != null;
+        if (webRequest.checkNotModified(catalogVersion.etag(version, gzip ? "-gz" : ""))) return null;
+
+        ResponseEntity.BodyBuilder res = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .cacheControl(CacheControl.noCache())
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+        if (gzip) {
+            return res.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(listing.gzip());
+        }
+        return res.body(listing.json());
+    }
+
+    // ✅ Paged + filtered listing: /api/events/page?status=UPCOMING&from=2026-01-01&location=nairobi&limit=20
+    @GetMapping("/page")
+    public ResponseEntity<?> getEventsPage(
+            @RequestParam(required = false) Event.Status status,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) String location,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int limit
+    ) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().body(Map.of("error", "limit must be between 1 and " + MAX_PAGE_SIZE));
+        }
+        try {
+            EventPage page = eventService.getEventsPage(status, from, to, location, cursor, limit);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("error", e.getMessage()));
+        }
     }
 
     @GetMapping("/{id}")
-    public Event getEventById(@PathVariable Long id) {
-        return eventService.getEventById(id);
+    public ResponseEntity<Event> getEventById(@PathVariable Long id, WebRequest webRequest) {
+        if (webRequest.checkNotModified(catalogVersion.etag())) return null;
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache())
+                .body(eventService.getEventById(id));
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] tokens = part.trim().split(";");
+            if (!tokens[0].trim().equalsIgnoreCase("gzip")) continue;
+            for (int i = 1; i < tokens.length; i++) {
+                if (tokens[i].trim().replace(" ", "").matches("q=0(\\.0*)?")) return false;
+            }
+            return true;
+        }
+        return false;
     }
 }
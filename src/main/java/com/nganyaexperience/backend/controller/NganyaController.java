@@ -2,10 +2,13 @@ package com.nganyaexperience.backend.controller;
 
 import com.nganyaexperience.backend.entity.Nganya;
 import com.nganyaexperience.backend.repository.NganyaRepository;
+import com.nganyaexperience.backend.service.CatalogVersion;
 import com.nganyaexperience.backend.service.CloudinaryService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
@@ -18,11 +21,15 @@ public class NganyaController {
 
     private final NganyaRepository nganyaRepository;
     private final CloudinaryService cloudinaryService;
+    private final CatalogVersion catalogVersion;
 
-    // ✅ GET ALL NGANYAS
+    // ✅ GET ALL NGANYAS (304 when the client's ETag is still current)
     @GetMapping("/nganyas")
-    public List<Nganya> getNganyas() {
-        return nganyaRepository.findAll();
+    public ResponseEntity<List<Nganya>> getNganyas(WebRequest webRequest) {
+        if (webRequest.checkNotModified(catalogVersion.etag())) return null;
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noCache())
+                .body(nganyaRepository.findAll());
     }
 
     // ✅ CREATE NGANYA (WITH IMAGE UPLOAD)
@@ -44,7 +51,9 @@ public class NganyaController {
                 .imageUrl(imageUrl) // 🔥 FULL CLOUDINARY URL
                 .build();
 
-        return nganyaRepository.save(nganya);
+        Nganya saved = nganyaRepository.save(nganya);
+        catalogVersion.bump();
+        return saved;
     }
 
     // ✅ DELETE NGANYA
@@ -56,6 +65,7 @@ public class NganyaController {
 
         cloudinaryService.deleteImage(nganya.getImageUrl());
         nganyaRepository.delete(nganya);
+        catalogVersion.bump();
 
         return ResponseEntity.ok().build();
     }
@@ -1,20 +1,30 @@
 package com.nganyaexperience.backend.controller;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.nganyaexperience.backend.entity.Booking;
 import com.nganyaexperience.backend.entity.Event;
+import com.nganyaexperience.backend.entity.MpesaCallbackInbox;
 import com.nganyaexperience.backend.entity.MpesaPayment;
+import com.nganyaexperience.backend.payments.PaymentRoute;
+import com.nganyaexperience.backend.payments.PaymentRoutingRegistry;
 import com.nganyaexperience.backend.repository.BookingRepository;
+import com.nganyaexperience.backend.repository.MpesaCallbackInboxRepository;
 import com.nganyaexperience.backend.repository.MpesaPaymentRepository;
 import com.nganyaexperience.backend.service.BookingService;
 import com.nganyaexperience.backend.service.DarajaService;
+import com.nganyaexperience.backend.service.IdempotencyService;
+import com.nganyaexperience.backend.service.PaymentStatusNotifier;
+import com.nganyaexperience.backend.service.StkPushDispatcher;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/api/payments")
@@ -23,10 +33,14 @@ import java.util.Map;
 public class PaymentsController {
 
     private final DarajaService darajaService;
+    private final PaymentRoutingRegistry routingRegistry;
     private final BookingRepository bookingRepository;
     private final MpesaPaymentRepository paymentRepository;
+    private final MpesaCallbackInboxRepository inboxRepository;
     private final BookingService bookingService;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final IdempotencyService idempotencyService;
+    private final PaymentStatusNotifier statusNotifier;
+    private final StkPushDispatcher stkDispatcher;
 
     @Data
     public static class StkPushRequest {
@@ -38,26 +52,40 @@ public class PaymentsController {
      * Trigger STK Push for a booking.
      * - Works for both PAYBILL (CustomerPayBillOnline) and TILL (CustomerBuyGoodsOnline)
      * - Does NOT reduce seats here; seats are reduced ONLY after callback success.
+     * - With an Idempotency-Key header a retried request returns the first response instead of a second prompt.
+     * - Over the shortcode's Daraja rate the push is queued: 202 with queueId, position and etaSeconds.
+     * - Async: the servlet thread is released while Daraja answers; the response is written when the future completes.
      */
     @PostMapping("/stk-push")
-    public ResponseEntity<?> stkPush(@RequestBody StkPushRequest req) {
-        if (req.getBookingId() == null) return ResponseEntity.badRequest().body(Map.of("error", "bookingId required"));
+    public CompletableFuture<ResponseEntity<?>> stkPush(
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey,
+            @RequestBody StkPushRequest req
+    ) {
+        String fingerprint = req.getBookingId() + "|" + req.getPhoneNumber();
+        return idempotencyService.executeAsync("stk-push", idempotencyKey, fingerprint, () -> doStkPush(req));
+    }
+
+    private CompletableFuture<ResponseEntity<?>> doStkPush(StkPushRequest req) {
+        if (req.getBookingId() == null) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(Map.of("error", "bookingId required")));
+        }
         if (req.getPhoneNumber() == null || req.getPhoneNumber().isBlank()) {
-            return ResponseEntity.badRequest().body(Map.of("error", "phoneNumber required"));
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(Map.of("error", "phoneNumber required")));
         }
 
         Booking booking = bookingRepository.findById(req.getBookingId()).orElse(null);
         if (booking == null) {
-            return ResponseEntity.status(404).body(Map.of("error", "Booking not found", "bookingId", req.getBookingId()));
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.status(404).body(Map.of("error", "Booking not found", "bookingId", req.getBookingId())));
         }
 
         // If already paid, return final state.
         if (booking.getPaymentStatus() == Booking.PaymentStatus.PAID) {
-            return ResponseEntity.ok(Map.of(
+            return CompletableFuture.completedFuture(ResponseEntity.ok(Map.of(
                     "status", "PAID",
                     "ticketCode", booking.getTicketCode(),
                     "bookingId", booking.getId()
-            ));
+            )));
         }
 
         // Allow retry: move FAILED/CANCELLED back to PENDING
@@ -65,42 +93,45 @@ public class PaymentsController {
 
         Event event = booking.getEvent();
         String phone254 = normalizePhone(req.getPhoneNumber());
-        int amount = (int) Math.round(booking.getTicketType().getPrice());
-
-        // Shortcode (Paybill shortcode OR Till number)
-        String businessShortcode = event.getPaymentNumber();
+        // One STK push for the whole booking (group bookings pay price x quantity)
+        int amount = (int) Math.round(booking.getTicketType().getPrice() * booking.seatCount());
 
-        // Transaction type & partyB:
-        // - PAYBILL: CustomerPayBillOnline
-        // - TILL: CustomerBuyGoodsOnline
-        String txType = (event.getPaymentMethod() == Event.PaymentMethod.TILL)
-                ? "CustomerBuyGoodsOnline"
-                : "CustomerPayBillOnline";
-
-        // Allow override via Render env vars (optional)
-        String txTypeOverride = System.getenv("DARAJA_TRANSACTION_TYPE");
-        if (txTypeOverride != null && !txTypeOverride.isBlank()) txType = txTypeOverride.trim();
-
-        String partyB = businessShortcode;
-        String partyBOverride = System.getenv("DARAJA_PARTYB");
-        if (partyBOverride != null && !partyBOverride.isBlank()) partyB = partyBOverride.trim();
+        // Shortcode / till, transaction type and PartyB come precomputed per event payment number
+        PaymentRoute route = routingRegistry.forEvent(event);
 
         String accountRef = "BOOK-" + booking.getId();
         String desc = "Nganya Experience - " + event.getTitle();
 
-        String token = darajaService.getAccessToken();
+        // Over the shortcode's rate (or others already waiting): queue it, the client follows /queue/{queueId}
+        if (!stkDispatcher.trySendNow(route.shortcode())) {
+            return CompletableFuture.completedFuture(
+                    queued(stkDispatcher.enqueue(booking, route, phone254, amount, accountRef, desc), booking));
+        }
+
+        return darajaService.stkPushAsync(route, phone254, amount, accountRef, desc)
+                .handle((resp, error) -> {
+                    if (error == null) return savePending(booking, phone254, amount, resp);
+                    if (!StkPushDispatcher.isThrottled(error)) {
+                        throw error instanceof CompletionException ce ? ce : new CompletionException(error);
+                    }
+                    // Daraja throttled us anyway (other instances share the quota): queue instead of failing
+                    stkDispatcher.throttled(route.shortcode());
+                    return queued(stkDispatcher.enqueue(booking, route, phone254, amount, accountRef, desc), booking);
+                });
+    }
 
-        Map<String, Object> resp = darajaService.stkPush(
-                token,
-                phone254,
-                amount,
-                businessShortcode,
-                partyB,
-                txType,
-                accountRef,
-                desc
-        );
+    private static ResponseEntity<?> queued(StkPushDispatcher.Position pos, Booking booking) {
+        return ResponseEntity.accepted().body(Map.of(
+                "status", "QUEUED",
+                "queueId", pos.queueId(),
+                "position", pos.position(),
+                "etaSeconds", pos.etaSeconds(),
+                "bookingId", booking.getId()
+        ));
+    }
 
+    // Runs on the HTTP client thread once Daraja has answered
+    private ResponseEntity<?> savePending(Booking booking, String phone254, int amount, Map<String, Object> resp) {
         // Daraja may return errors without CheckoutRequestID; be defensive.
         String checkoutRequestId = resp.get("CheckoutRequestID") == null ? null : String.valueOf(resp.get("CheckoutRequestID"));
         String merchantRequestId = resp.get("MerchantRequestID") == null ? null : String.valueOf(resp.get("MerchantRequestID"));
@@ -114,15 +145,7 @@ public class PaymentsController {
         }
 
         // Save payment row (one-to-one per booking). If a payment exists already, overwrite it.
-        MpesaPayment payment = paymentRepository.findByBooking_Id(booking.getId()).orElse(
-                MpesaPayment.builder().booking(booking).build()
-        );
-        payment.setPhone(phone254);
-        payment.setAmount((double) amount);
-        payment.setCheckoutRequestId(checkoutRequestId);
-        payment.setMerchantRequestId(merchantRequestId);
-        payment.setStatus(MpesaPayment.Status.PENDING);
-        paymentRepository.save(payment);
+        stkDispatcher.recordPush(booking, phone254, amount, checkoutRequestId, merchantRequestId);
 
         return ResponseEntity.ok(Map.of(
                 "status", "PENDING",
@@ -133,6 +156,27 @@ public class PaymentsController {
         ));
     }
 
+    /**
+     * Progress of a queued STK push (202 from /stk-push). Once SENT, use checkoutRequestId with /status as usual.
+     */
+    @GetMapping("/queue/{queueId}")
+    public ResponseEntity<?> queueStatus(@PathVariable Long queueId) {
+        StkPushDispatcher.Position pos = stkDispatcher.position(queueId);
+        if (pos == null) {
+            return ResponseEntity.status(404).body(Map.of("error", "Queued push not found", "queueId", queueId));
+        }
+
+        // checkoutRequestId / error are null most of the time, so no Map.of here
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("status", pos.status());
+        body.put("queueId", pos.queueId());
+        body.put("position", pos.position());
+        body.put("etaSeconds", pos.etaSeconds());
+        body.put("checkoutRequestId", pos.checkoutRequestId());
+        body.put("error", pos.error());
+        return ResponseEntity.ok(body);
+    }
+
     @GetMapping("/status/{checkoutRequestId}")
     public ResponseEntity<?> status(@PathVariable String checkoutRequestId) {
         MpesaPayment payment = paymentRepository.findByCheckoutRequestId(checkoutRequestId)
@@ -142,54 +186,46 @@ public class PaymentsController {
             return ResponseEntity.status(404).body(Map.of("error", "Payment not found", "checkoutRequestId", checkoutRequestId));
         }
 
-        Booking booking = payment.getBooking();
-        return ResponseEntity.ok(Map.of(
-                "paymentStatus", payment.getStatus(),
-                "bookingPaymentStatus", booking.getPaymentStatus(),
-                "ticketCode", booking.getTicketCode(),
-                "bookingId", booking.getId()
-        ));
+        return ResponseEntity.ok(PaymentStatusNotifier.statusBody(payment, payment.getBooking()));
     }
 
     /**
-     * Safaricom calls this URL after STK push.
+     * Same as /status/{checkoutRequestId} but as Server-Sent Events: the current state right away,
+     * then an event when the callback / reconciler settles the payment (stream ends on PAID or FAILED).
+     * 503 when the server has too many streams open; clients then fall back to polling.
      */
-    @PostMapping("/callback")
-    @Transactional
-    public ResponseEntity<?> callback(@RequestBody Map<String, Object> payload) throws Exception {
-        // Safaricom sends: { Body: { stkCallback: { MerchantRequestID, CheckoutRequestID, ResultCode, ResultDesc, CallbackMetadata }} }
-        Map body = (Map) payload.get("Body");
-        if (body == null) return ResponseEntity.ok(Map.of("ok", true));
-        Map stk = (Map) body.get("stkCallback");
-        if (stk == null) return ResponseEntity.ok(Map.of("ok", true));
+    @GetMapping(value = "/status/{checkoutRequestId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<?> statusStream(@PathVariable String checkoutRequestId) {
+        if (!paymentRepository.existsByCheckoutRequestId(checkoutRequestId)) {
+            return ResponseEntity.status(404).contentType(MediaType.APPLICATION_JSON)
+                    .body(Map.of("error", "Payment not found", "checkoutRequestId", checkoutRequestId));
+        }
 
-        String checkoutRequestId = String.valueOf(stk.get("CheckoutRequestID"));
-        Integer resultCode = stk.get("ResultCode") == null ? null : Integer.parseInt(String.valueOf(stk.get("ResultCode")));
+        SseEmitter emitter = statusNotifier.subscribe(checkoutRequestId);
+        if (emitter == null) {
+            return ResponseEntity.status(503).contentType(MediaType.APPLICATION_JSON)
+                    .body(Map.of("error", "Too many status streams, poll /status instead"));
+        }
 
+        // Read the state only after subscribing: a callback that commits in between is either
+        // in this read or published to the new stream, never lost
         MpesaPayment payment = paymentRepository.findByCheckoutRequestId(checkoutRequestId).orElse(null);
         if (payment == null) {
-            // Unknown checkout id - still return 200
-            return ResponseEntity.ok(Map.of("ok", true));
-        }
-
-        payment.setRawCallback(objectMapper.writeValueAsString(payload));
-
-        if (resultCode != null && resultCode == 0) {
-            String receipt = extractReceipt(stk);
-            payment.setMpesaReceipt(receipt);
-            payment.setStatus(MpesaPayment.Status.PAID);
-            paymentRepository.save(payment);
-
-            // Confirm booking, issue ticket, reduce seat
-            bookingService.confirmPaid(payment.getBooking().getId());
-        } else {
-            payment.setStatus(MpesaPayment.Status.FAILED);
-            paymentRepository.save(payment);
-
-            // Mark booking failed (user can retry)
-            bookingService.markFailed(payment.getBooking().getId());
+            emitter.complete();
+            return ResponseEntity.ok(emitter);
         }
+        statusNotifier.sendCurrent(emitter, payment, payment.getBooking());
+        return ResponseEntity.ok(emitter);
+    }
 
+    /**
+     * Safaricom calls this URL after STK push.
+     * The body is stored byte-for-byte in the callback inbox (one insert, no JSON binding) and acknowledged
+     * right away; CallbackInboxWorker parses it (StkCallbackParser) and applies it to the payment and booking.
+     */
+    @PostMapping("/callback")
+    public ResponseEntity<?> callback(@RequestBody byte[] payload) {
+        inboxRepository.save(MpesaCallbackInbox.received(payload));
         return ResponseEntity.ok(Map.of("ok", true));
     }
 
@@ -205,23 +241,4 @@ public class PaymentsController {
         }
         return p;
     }
-
-    private static String extractReceipt(Map stk) {
-        try {
-            Map meta = (Map) stk.get("CallbackMetadata");
-            if (meta == null) return null;
-            Object itemsObj = meta.get("Item");
-            if (!(itemsObj instanceof java.util.List<?> items)) return null;
-            for (Object it : items) {
-                if (!(it instanceof Map m)) continue;
-                if ("MpesaReceiptNumber".equals(String.valueOf(m.get("Name")))) {
-                    Object v = m.get("Value");
-                    return v == null ? null : String.valueOf(v);
-                }
-            }
-            return null;
-        } catch (Exception e) {
-            return null;
-        }
-    }
 }
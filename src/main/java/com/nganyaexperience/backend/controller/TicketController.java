@@ -2,8 +2,10 @@ package com.nganyaexperience.backend.controller;
 
 import com.nganyaexperience.backend.entity.Event;
 import com.nganyaexperience.backend.entity.TicketType;
+import com.nganyaexperience.backend.inventory.InventoryEngine;
 import com.nganyaexperience.backend.repository.EventRepository;
 import com.nganyaexperience.backend.repository.TicketTypeRepository;
+import com.nganyaexperience.backend.service.EventCatalogCache;
 import org.springframework.web.bind.annotation.*;
 
 @RestController
@@ -13,10 +15,19 @@ public class TicketController {
 
     private final TicketTypeRepository ticketRepo;
     private final EventRepository eventRepo;
+    private final EventCatalogCache catalogCache;
+    private final InventoryEngine inventory;
 
-    public TicketController(TicketTypeRepository ticketRepo, EventRepository eventRepo) {
+    public TicketController(
+            TicketTypeRepository ticketRepo,
+            EventRepository eventRepo,
+            EventCatalogCache catalogCache,
+            InventoryEngine inventory
+    ) {
         this.ticketRepo = ticketRepo;
         this.eventRepo = eventRepo;
+        this.catalogCache = catalogCache;
+        this.inventory = inventory;
     }
 
     @PostMapping("/{eventId}")
@@ -28,6 +39,9 @@ public class TicketController {
                 .orElseThrow(() -> new RuntimeException("Event not found"));
 
         ticket.setEvent(event);
-        return ticketRepo.save(ticket);
+        TicketType saved = ticketRepo.save(ticket);
+        inventory.track(saved);
+        catalogCache.invalidate();
+        return saved;
     }
 }
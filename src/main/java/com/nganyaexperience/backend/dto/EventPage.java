@@ -0,0 +1,15 @@
+package com.nganyaexperience.backend.dto;
+
+import com.nganyaexperience.backend.entity.Event;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class EventPage {
+    private List<Event> items;
+    // Pass back as ?cursor= to get the next page; null when this is the last page
+    private String nextCursor;
+}
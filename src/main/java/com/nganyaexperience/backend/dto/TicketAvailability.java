@@ -0,0 +1,28 @@
+package com.nganyaexperience.backend.dto;
+
+import com.nganyaexperience.backend.entity.Booking;
+import lombok.Data;
+
+/**
+ * Booking-derived seat counts for one ticket type (read model, built from one aggregate query).
+ * Counts are seats, so a group booking of 4 adds 4.
+ */
+@Data
+public class TicketAvailability {
+    private final Long ticketTypeId;
+    private long paid;
+    private long pending;
+    private long failed;
+    private long cancelled;
+
+    public void add(Booking.PaymentStatus status, long count) {
+        // Older rows may have a null status; treat them as PENDING (same as the V2 migration)
+        if (status == null) status = Booking.PaymentStatus.PENDING;
+        switch (status) {
+            case PAID -> paid += count;
+            case PENDING -> pending += count;
+            case FAILED -> failed += count;
+            case CANCELLED -> cancelled += count;
+        }
+    }
+}
@@ -3,9 +3,17 @@ package com.nganyaexperience.backend.entity;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.ColumnDefault;
+
+import java.time.Instant;
 
 @Entity
-@Table(name = "bookings")
+@Table(name = "bookings", indexes = {
+        // Hold sweeper scans PENDING bookings by expiry
+        @Index(name = "idx_bookings_status_hold_expires", columnList = "payment_status, hold_expires_at"),
+        // Seat counts per ticket type (and payment status)
+        @Index(name = "idx_bookings_ticket_type_status", columnList = "ticket_type_id, payment_status")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -15,8 +23,16 @@ public class Booking {
     @Column(unique = true)
     private String ticketCode;
 
+    // Group bookings: last code of the contiguous range ticketCode..lastTicketCode (null for one seat)
+    private String lastTicketCode;
+
+    // Number of seats in this booking (one STK push, one callback for all of them)
+    @ColumnDefault("1")
+    private Integer quantity;
+
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "bookings_seq")
+    @SequenceGenerator(name = "bookings_seq", sequenceName = "bookings_seq", allocationSize = 50)
     private Long id;
 
     private String customerName;
@@ -35,6 +51,14 @@ public class Booking {
     @Enumerated(EnumType.STRING)
     private PaymentStatus paymentStatus;
 
+    // While PENDING: the seat is held for this booking until this time (null = no hold)
+    private Instant holdExpiresAt;
+
+    // Seats this booking covers (older rows have no quantity = 1 seat)
+    public int seatCount() {
+        return quantity == null ? 1 : quantity;
+    }
+
     public enum PaymentStatus {
         PENDING,
         PAID,
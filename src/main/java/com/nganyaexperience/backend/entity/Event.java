@@ -9,6 +9,7 @@ import java.time.LocalTime;
 import java.util.List;
 
 @Entity
+// Paging / location indexes are expression indexes, created by migration V5 (not expressible here)
 @Table(name = "events")
 @Getter
 @Setter
@@ -18,7 +19,8 @@ import java.util.List;
 public class Event {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "events_seq")
+    @SequenceGenerator(name = "events_seq", sequenceName = "events_seq", allocationSize = 50)
     private Long id;
 
     private String title;
@@ -40,6 +42,7 @@ public class Event {
     // ---------------------------
     // PAYMENT CONFIG PER EVENT
     // ---------------------------
+    @Builder.Default
     @Enumerated(EnumType.STRING)
     private PaymentMethod paymentMethod = PaymentMethod.TILL;
 
@@ -0,0 +1,47 @@
+package com.nganyaexperience.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * Stored outcome of a request sent with an Idempotency-Key header.
+ * id = scope + ":" + key (e.g. "booking:6f1c...").
+ */
+@Entity
+@Table(name = "idempotency_keys", indexes = {
+        @Index(name = "idx_idempotency_keys_expires_at", columnList = "expires_at")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class IdempotencyRecord {
+
+    @Id
+    @Column(length = 200)
+    private String id;
+
+    // What the request was about; a reused key with a different request is rejected
+    @Column(length = 300)
+    private String fingerprint;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 20)
+    private State state;
+
+    private Integer statusCode;
+
+    @Column(length = 20000)
+    private String responseBody;
+
+    @Column(nullable = false)
+    private Instant expiresAt;
+
+    public enum State {
+        IN_PROGRESS,
+        COMPLETED
+    }
+}
@@ -0,0 +1,67 @@
+package com.nganyaexperience.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * A Daraja STK callback exactly as received (the request body bytes, not decoded). The callback endpoint only inserts here and answers;
+ * CallbackInboxWorker applies it to the payment/booking later (with retries).
+ */
+@Entity
+@Table(name = "mpesa_callback_inbox", indexes = {
+        @Index(name = "idx_callback_inbox_status_next_attempt", columnList = "status, next_attempt_at")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class MpesaCallbackInbox {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "mpesa_callback_inbox_seq")
+    @SequenceGenerator(name = "mpesa_callback_inbox_seq", sequenceName = "mpesa_callback_inbox_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(columnDefinition = "bytea", nullable = false)
+    private byte[] payload;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 20, nullable = false)
+    private Status status;
+
+    @Column(nullable = false)
+    private Integer attempts;
+
+    // PENDING: not before this; PROCESSING: lease end (entry is retried if a worker died)
+    @Column(nullable = false)
+    private Instant nextAttemptAt;
+
+    @Column(nullable = false)
+    private Instant receivedAt;
+
+    private Instant processedAt;
+
+    @Column(length = 1000)
+    private String lastError;
+
+    public enum Status {
+        PENDING,
+        PROCESSING,
+        DONE,
+        DEAD
+    }
+
+    public static MpesaCallbackInbox received(byte[] payload) {
+        Instant now = Instant.now();
+        return MpesaCallbackInbox.builder()
+                .payload(payload)
+                .status(Status.PENDING)
+                .attempts(0)
+                .nextAttemptAt(now)
+                .receivedAt(now)
+                .build();
+    }
+}
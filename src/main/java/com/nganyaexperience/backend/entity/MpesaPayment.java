@@ -2,9 +2,14 @@ package com.nganyaexperience.backend.entity;
 
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.ColumnDefault;
+
+import java.time.Instant;
 
 @Entity
-@Table(name = "mpesa_payments")
+@Table(name = "mpesa_payments", indexes = {
+        @Index(name = "idx_mpesa_payments_status_created_at", columnList = "status, created_at")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -13,7 +18,8 @@ import lombok.*;
 public class MpesaPayment {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "mpesa_payments_seq")
+    @SequenceGenerator(name = "mpesa_payments_seq", sequenceName = "mpesa_payments_seq", allocationSize = 50)
     private Long id;
 
     @OneToOne
@@ -32,9 +38,26 @@ public class MpesaPayment {
     @Enumerated(EnumType.STRING)
     private Status status;
 
-    @Column(length = 5000)
+    // Whole callback body, unbounded like the inbox payload it is copied from
+    @Column(columnDefinition = "text")
     private String rawCallback;
 
+    // When the current STK push was sent (reset on every retry push)
+    private Instant createdAt;
+
+    // STK Push Query reconciliation (lost callbacks): attempts so far and when to ask next
+    @Builder.Default
+    @Column(nullable = false)
+    @ColumnDefault("0")
+    private Integer queryAttempts = 0;
+
+    private Instant nextQueryAt;
+
+    @PrePersist
+    void prePersist() {
+        if (createdAt == null) createdAt = Instant.now();
+    }
+
     public enum Status {
         PENDING,
         PAID,
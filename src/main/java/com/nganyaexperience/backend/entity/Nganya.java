@@ -13,7 +13,8 @@ import lombok.*;
 public class Nganya {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "nganyas_seq")
+    @SequenceGenerator(name = "nganyas_seq", sequenceName = "nganyas_seq", allocationSize = 50)
     private Long id;
 
     private String name;
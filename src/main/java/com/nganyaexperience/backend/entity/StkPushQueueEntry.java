@@ -0,0 +1,74 @@
+package com.nganyaexperience.backend.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * An STK push waiting for its shortcode's rate limit (Daraja TPS quota per Paybill / till).
+ * StkPushDispatcher sends it when a token is free and fills in the CheckoutRequestID.
+ */
+@Entity
+@Table(name = "stk_push_queue", indexes = {
+        @Index(name = "idx_stk_push_queue_shortcode_status", columnList = "shortcode, status, next_attempt_at")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class StkPushQueueEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "stk_push_queue_seq")
+    @SequenceGenerator(name = "stk_push_queue_seq", sequenceName = "stk_push_queue_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long bookingId;
+
+    // Event.paymentNumber (or the default shortcode); the rate limit key
+    @Column(length = 20, nullable = false)
+    private String shortcode;
+
+    @Column(length = 20, nullable = false)
+    private String phone;
+
+    @Column(nullable = false)
+    private Integer amount;
+
+    private String accountReference;
+    private String transactionDesc;
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 20, nullable = false)
+    private Status status;
+
+    @Column(nullable = false)
+    private Integer attempts;
+
+    // QUEUED: not before this; SENDING: lease end (then UNKNOWN: never re-sent, it may have prompted already)
+    @Column(nullable = false)
+    private Instant nextAttemptAt;
+
+    @Column(nullable = false)
+    private Instant enqueuedAt;
+
+    private Instant sentAt;
+
+    private String checkoutRequestId;
+
+    @Column(length = 1000)
+    private String lastError;
+
+    public enum Status {
+        QUEUED,
+        SENDING,
+        SENT,
+        FAILED,
+        CANCELLED,
+        // Daraja may or may not have accepted it (timeout, 5xx, sender died); the reconciler settles the payment
+        UNKNOWN
+    }
+}
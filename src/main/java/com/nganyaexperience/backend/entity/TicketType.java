@@ -3,6 +3,7 @@ package com.nganyaexperience.backend.entity;
 import com.fasterxml.jackson.annotation.JsonBackReference;
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.ColumnDefault;
 
 @Entity
 @Table(name = "ticket_types")
@@ -14,26 +15,37 @@ import lombok.*;
 public class TicketType {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "ticket_types_seq")
+    @SequenceGenerator(name = "ticket_types_seq", sequenceName = "ticket_types_seq", allocationSize = 50)
     private Long id;
 
     private String name;
     private Double price;
 
     // Total seats available
+    @Builder.Default
     private Integer capacity = 0;
 
-    // Seats already booked
+    // Seats already booked.
+    // sold/held are updated ONLY by InventoryEngine's batched SQL, never by entity saves.
+    @Builder.Default
+    @Column(updatable = false)
     private Integer sold = 0;
 
+    // Seats reserved by PENDING bookings whose hold has not expired yet
+    @Builder.Default
+    @ColumnDefault("0")
+    @Column(updatable = false)
+    private Integer held = 0;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "event_id")
     @JsonBackReference
     private Event event;
 
-    // Seats remaining (never negative)
+    // Seats remaining (never negative); held seats are not available
     @Transient
     public int getSeatsLeft() {
-        return Math.max(0, capacity - sold);
+        return Math.max(0, capacity - sold - (held == null ? 0 : held));
     }
 }
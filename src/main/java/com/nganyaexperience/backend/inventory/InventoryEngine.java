@@ -0,0 +1,282 @@
+package com.nganyaexperience.backend.inventory;
+
+import com.nganyaexperience.backend.dto.TicketAvailability;
+import com.nganyaexperience.backend.entity.TicketType;
+import com.nganyaexperience.backend.repository.BookingRepository;
+import com.nganyaexperience.backend.repository.TicketTypeHoldCount;
+import com.nganyaexperience.backend.repository.TicketTypeRepository;
+import com.nganyaexperience.backend.repository.TicketTypeStatusCount;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory seat inventory per ticket type: capacity, held and sold.
+ * <p>
+ * Every sold-out check and seat allocation is answered here with lock-free CAS on one counter per
+ * ticket type (no shared lock, so tiers never contend with each other). ticket_types.sold/held are
+ * written behind in JDBC batches by {@link #flush()}.
+ * <p>
+ * Counters are rebuilt from the bookings table on startup (PAID = sold, PENDING with a hold = held),
+ * so a crash between two flushes loses nothing. ONE application instance owns the inventory: startup takes
+ * {@link InventoryOwnerLock} first and fails if another instance holds it.
+ * The rebuild runs once all beans exist, before the web server and the schedulers start.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class InventoryEngine implements SmartInitializingSingleton {
+
+    private final TicketTypeRepository ticketTypeRepository;
+    private final BookingRepository bookingRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final InventoryOwnerLock ownerLock;
+
+    // Replaced as a whole by loadAll(), never cleared in place
+    private volatile Map<Long, Counter> counters = new ConcurrentHashMap<>();
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+
+    /**
+     * sold (high 32 bits) and held (low 32 bits) packed in one AtomicLong so
+     * "sold + held < capacity" can be checked and updated in a single CAS.
+     */
+    static final class Counter {
+        final AtomicInteger capacity;
+        final AtomicLong state;
+
+        Counter(int capacity, int sold, int held) {
+            this.capacity = new AtomicInteger(capacity);
+            this.state = new AtomicLong(pack(sold, held));
+        }
+
+        static long pack(int sold, int held) {
+            return ((long) sold << 32) | (held & 0xffffffffL);
+        }
+
+        static int sold(long s) {
+            return (int) (s >>> 32);
+        }
+
+        static int held(long s) {
+            return (int) s;
+        }
+    }
+
+    // ---------------------------
+    // LOADING
+    // ---------------------------
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        ownerLock.acquire();
+        loadAll();
+    }
+
+    /**
+     * Rebuild every counter into a fresh map and swap it in; readers see either the old or the new map.
+     */
+    public void loadAll() {
+        List<TicketType> tickets = ticketTypeRepository.findAll();
+        List<Long> ids = tickets.stream().map(TicketType::getId).toList();
+
+        Map<Long, TicketAvailability> paid = new HashMap<>();
+        Map<Long, Long> holds = new HashMap<>();
+        if (!ids.isEmpty()) {
+            for (TicketTypeStatusCount row : bookingRepository.sumSeatsByTicketTypeIdsGroupByStatus(ids)) {
+                paid.computeIfAbsent(row.getTicketTypeId(), TicketAvailability::new)
+                        .add(row.getPaymentStatus(), row.getTotal());
+            }
+            for (TicketTypeHoldCount row : bookingRepository.sumHeldSeatsByTicketTypeIds(ids)) {
+                holds.put(row.getTicketTypeId(), row.getTotal());
+            }
+        }
+
+        Map<Long, Counter> loaded = new ConcurrentHashMap<>();
+        for (TicketType t : tickets) {
+            TicketAvailability a = paid.get(t.getId());
+            int sold = a == null ? 0 : (int) a.getPaid();
+            int held = holds.getOrDefault(t.getId(), 0L).intValue();
+            loaded.put(t.getId(), new Counter(nz(t.getCapacity()), sold, held));
+        }
+        counters = loaded;
+        dirty.addAll(loaded.keySet()); // write the rebuilt values back to ticket_types
+        flush();
+        log.info("Seat inventory loaded for {} ticket types", loaded.size());
+    }
+
+    // New or changed ticket type (admin)
+    public void track(TicketType ticket) {
+        if (ticket.getId() == null) return;
+        counters.put(ticket.getId(), new Counter(nz(ticket.getCapacity()), nz(ticket.getSold()), nz(ticket.getHeld())));
+    }
+
+    // Ticket types deleted with their event (admin)
+    public void forget(Collection<Long> ticketTypeIds) {
+        for (Long id : ticketTypeIds) {
+            counters.remove(id);
+            dirty.remove(id);
+        }
+    }
+
+    // ---------------------------
+    // READS
+    // ---------------------------
+
+    public int sold(Long ticketTypeId) {
+        return Counter.sold(counter(ticketTypeId).state.get());
+    }
+
+    public int held(Long ticketTypeId) {
+        return Counter.held(counter(ticketTypeId).state.get());
+    }
+
+    public int seatsLeft(Long ticketTypeId) {
+        Counter c = counter(ticketTypeId);
+        long s = c.state.get();
+        return Math.max(0, c.capacity.get() - Counter.sold(s) - Counter.held(s));
+    }
+
+    // ---------------------------
+    // ALLOCATION (all lock-free; undone automatically if the surrounding transaction rolls back)
+    // ---------------------------
+
+    /**
+     * Hold {@code seats} seats for a PENDING booking. False = SOLD OUT.
+     */
+    public boolean tryHold(Long ticketTypeId, int seats) {
+        Counter c = counter(ticketTypeId);
+        while (true) {
+            long s = c.state.get();
+            int sold = Counter.sold(s), held = Counter.held(s);
+            if (sold + held + seats > c.capacity.get()) return false;
+            if (c.state.compareAndSet(s, Counter.pack(sold, held + seats))) break;
+        }
+        changed(ticketTypeId);
+        onRollback(() -> {
+            unhold(c, seats);
+            changed(ticketTypeId);
+        });
+        return true;
+    }
+
+    public void releaseHold(Long ticketTypeId, int seats) {
+        Counter c = counter(ticketTypeId);
+        int released = unhold(c, seats);
+        changed(ticketTypeId);
+
+        // The booking keeps its hold if the transaction rolls back: take back what was actually released
+        onRollback(() -> {
+            c.state.updateAndGet(s -> Counter.pack(Counter.sold(s), Counter.held(s) + released));
+            changed(ticketTypeId);
+        });
+    }
+
+    /**
+     * Sell {@code seats} seats. With {@code fromHold} the seats were already held by the booking,
+     * otherwise they must still be free. Returns the new sold count (last seat sequence), empty = SOLD OUT.
+     */
+    public OptionalInt claim(Long ticketTypeId, int seats, boolean fromHold) {
+        Counter c = counter(ticketTypeId);
+        int newSold;
+        while (true) {
+            long s = c.state.get();
+            int sold = Counter.sold(s), held = Counter.held(s);
+            int newHeld = fromHold ? Math.max(0, held - seats) : held;
+            newSold = sold + seats;
+            if (newSold + newHeld > c.capacity.get()) return OptionalInt.empty();
+            if (c.state.compareAndSet(s, Counter.pack(newSold, newHeld))) break;
+        }
+        changed(ticketTypeId);
+        onRollback(() -> {
+            c.state.updateAndGet(s -> Counter.pack(
+                    Math.max(0, Counter.sold(s) - seats),
+                    fromHold ? Counter.held(s) + seats : Counter.held(s)));
+            changed(ticketTypeId);
+        });
+        return OptionalInt.of(newSold);
+    }
+
+    // ---------------------------
+    // WRITE-BEHIND
+    // ---------------------------
+
+    /**
+     * Write current sold/held of every changed ticket type to ticket_types in one JDBC batch.
+     * Absolute values (not deltas), so a failed flush is simply retried on the next run.
+     */
+    @Scheduled(fixedDelayString = "${app.inventory.flush-interval-ms:1000}")
+    public void flush() {
+        if (dirty.isEmpty()) return;
+
+        List<Object[]> rows = new ArrayList<>();
+        List<Long> ids = new ArrayList<>(dirty);
+        for (Long id : ids) {
+            dirty.remove(id);
+            Counter c = counters.get(id);
+            if (c == null) continue;
+            long s = c.state.get();
+            rows.add(new Object[]{Counter.sold(s), Counter.held(s), id});
+        }
+        if (rows.isEmpty()) return;
+
+        try {
+            jdbcTemplate.batchUpdate("UPDATE ticket_types SET sold = ?, held = ? WHERE id = ?", rows);
+        } catch (RuntimeException e) {
+            dirty.addAll(ids);
+            log.warn("Seat inventory flush failed for {} ticket types, will retry: {}", ids.size(), e.getMessage());
+        }
+    }
+
+    // ---------------------------
+
+    private Counter counter(Long ticketTypeId) {
+        Counter c = counters.get(ticketTypeId);
+        if (c != null) return c;
+
+        // Not loaded yet (e.g. created before startup finished): read it once from the DB
+        TicketType t = ticketTypeRepository.findById(ticketTypeId)
+                .orElseThrow(() -> new RuntimeException("Ticket not found"));
+        return counters.computeIfAbsent(ticketTypeId,
+                id -> new Counter(nz(t.getCapacity()), nz(t.getSold()), nz(t.getHeld())));
+    }
+
+    // Returns how many held seats were actually released (held never goes negative)
+    private static int unhold(Counter c, int seats) {
+        long before = c.state.getAndUpdate(s -> Counter.pack(Counter.sold(s), Math.max(0, Counter.held(s) - seats)));
+        return Math.min(seats, Counter.held(before));
+    }
+
+    private void changed(Long ticketTypeId) {
+        dirty.add(ticketTypeId);
+    }
+
+    private static void onRollback(Runnable undo) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) return;
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) undo.run();
+            }
+        });
+    }
+
+    private static int nz(Integer v) {
+        return v == null ? 0 : v;
+    }
+}
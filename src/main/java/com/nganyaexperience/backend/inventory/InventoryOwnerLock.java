@@ -0,0 +1,82 @@
+package com.nganyaexperience.backend.inventory;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Makes sure only one application instance owns the seat inventory.
+ * <p>
+ * {@link InventoryEngine} keeps the counters in memory and writes absolute sold/held values back, so a
+ * second instance would sell the same seats again. The owner holds a Postgres session advisory lock on a
+ * connection kept for its whole lifetime; an instance that cannot take it refuses to start.
+ */
+@Slf4j
+@Component
+public class InventoryOwnerLock {
+
+    // Advisory lock key, ASCII "NGINVENT"
+    static final long LOCK_KEY = 0x4E47494E56454E54L;
+
+    private final DataSource dataSource;
+    private final boolean enabled;
+
+    // The session lock lives as long as this connection
+    private Connection connection;
+
+    public InventoryOwnerLock(
+            DataSource dataSource,
+            @Value("${app.inventory.owner-lock-enabled:true}") boolean enabled
+    ) {
+        this.dataSource = dataSource;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Take the lock, or fail if another instance holds it.
+     */
+    public synchronized void acquire() {
+        if (!enabled || connection != null) return;
+        try {
+            Connection c = dataSource.getConnection();
+            if (!query(c, "SELECT pg_try_advisory_lock(?)")) {
+                c.close();
+                throw new RuntimeException("Another application instance owns the seat inventory; "
+                        + "run a single instance (see app.inventory.owner-lock-enabled)");
+            }
+            connection = c;
+            log.info("Seat inventory owner lock acquired");
+        } catch (SQLException e) {
+            throw new RuntimeException("Could not take the seat inventory owner lock: " + e.getMessage(), e);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void release() {
+        if (connection == null) return;
+        // Pooled connection: unlock explicitly, closing only returns it to the pool
+        try (Connection c = connection) {
+            query(c, "SELECT pg_advisory_unlock(?)");
+        } catch (SQLException e) {
+            log.warn("Seat inventory owner lock release failed: {}", e.getMessage());
+        } finally {
+            connection = null;
+        }
+    }
+
+    private static boolean query(Connection c, String sql) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setLong(1, LOCK_KEY);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+}
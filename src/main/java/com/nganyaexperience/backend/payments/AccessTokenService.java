@@ -1,40 +1,26 @@
 package com.nganyaexperience.backend.payments;
 
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
-
-import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
 @Service
 public class AccessTokenService {
 
     private final DarajaConfig cfg;
-    private final RestTemplate rest = new RestTemplate();
+    private final DarajaTokenCache tokenCache;
 
-    public AccessTokenService(DarajaConfig cfg) {
+    public AccessTokenService(DarajaConfig cfg, DarajaTokenCache tokenCache) {
         this.cfg = cfg;
+        this.tokenCache = tokenCache;
     }
 
+    // Cached; only hits /oauth/v1/generate when the token is missing or about to expire
     public String getAccessToken() {
-        String url = cfg.baseUrl() + "/oauth/v1/generate?grant_type=client_credentials";
-
-        String basic = cfg.consumerKey + ":" + cfg.consumerSecret;
-        String auth = "Basic " + Base64.getEncoder().encodeToString(basic.getBytes(StandardCharsets.UTF_8));
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.set("Authorization", auth);
-
-        HttpEntity<Void> req = new HttpEntity<>(headers);
-
-        ResponseEntity<TokenResponse> res =
-                rest.exchange(url, HttpMethod.GET, req, TokenResponse.class);
+        return tokenCache.getToken(cfg.baseUrl(), cfg.consumerKey, cfg.consumerSecret);
+    }
 
-        if (res.getBody() == null || res.getBody().access_token == null) {
-            throw new RuntimeException("Failed to get access token from Daraja");
-        }
-        return res.getBody().access_token;
+    // Call when Daraja answered 401 to this token
+    public void evict(String token) {
+        tokenCache.evict(cfg.baseUrl(), cfg.consumerKey, token);
     }
 
     public static class TokenResponse {
@@ -0,0 +1,142 @@
+package com.nganyaexperience.backend.payments;
+
+import com.nganyaexperience.backend.config.WorkerThreads;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ConnectionRequestTimeoutException;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.util.DeadlineTimeoutException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Non-blocking Daraja POSTs on the shared Apache async client (HttpClientConfig: same pool limits, timeouts
+ * and metrics as the RestTemplate path): no thread waits while Safaricom answers.
+ * Goes through DarajaGateway.callAsync, and errors are raised as the same Spring exceptions the
+ * RestTemplate path throws (4xx/5xx -> HttpStatusCodeException, I/O -> ResourceAccessException),
+ * so breaker classification and 401 handling are shared.
+ */
+@Component
+public class DarajaAsyncClient {
+
+    private final CloseableHttpAsyncClient http;
+    private final JsonMapper jsonMapper;
+    private final DarajaGateway gateway;
+
+    // Completions (payment row saves) must not run on the client's I/O reactor threads
+    private final ExecutorService completions;
+
+    // Only used when the cached token is missing/expired (background refresh normally prevents that)
+    private final ExecutorService tokenFetcher;
+
+    public DarajaAsyncClient(
+            CloseableHttpAsyncClient outboundAsyncHttpClient,
+            JsonMapper jsonMapper,
+            DarajaGateway gateway,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads
+    ) {
+        this.http = outboundAsyncHttpClient;
+        this.jsonMapper = jsonMapper;
+        this.gateway = gateway;
+        this.completions = virtualThreads
+                ? Executors.newThreadPerTaskExecutor(WorkerThreads.factory("daraja-http-", true))
+                : Executors.newCachedThreadPool(WorkerThreads.factory("daraja-http-", false));
+        this.tokenFetcher = Executors.newFixedThreadPool(2, WorkerThreads.factory("daraja-token-", virtualThreads));
+    }
+
+    /**
+     * POST payload as JSON with a bearer token; on 401 the token is dropped and the call is made once more.
+     */
+    public CompletableFuture<Map<String, Object>> post(String operation, String url,
+                                                       DarajaTokenCache.TokenHandle token, Map<String, Object> payload) {
+        byte[] body = jsonMapper.writeValueAsBytes(payload);
+        return token(token).thenCompose(t -> send(operation, url, t, body)
+                .exceptionallyCompose(e -> {
+                    Throwable cause = DarajaGateway.unwrap(e);
+                    if (!(cause instanceof HttpClientErrorException.Unauthorized)) return CompletableFuture.failedFuture(cause);
+                    token.evict(t);
+                    return token(token).thenCompose(fresh -> send(operation, url, fresh, body));
+                }));
+    }
+
+    private CompletableFuture<String> token(DarajaTokenCache.TokenHandle token) {
+        String cached = token.peek();
+        return cached != null
+                ? CompletableFuture.completedFuture(cached)
+                : CompletableFuture.supplyAsync(token::get, tokenFetcher);
+    }
+
+    private CompletableFuture<Map<String, Object>> send(String operation, String url, String accessToken, byte[] body) {
+        SimpleHttpRequest request = SimpleRequestBuilder.post(url)
+                .setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken)
+                .setBody(body, ContentType.APPLICATION_JSON)
+                .build();
+
+        return gateway.callAsync(operation, () -> execute(request)
+                .handleAsync((resp, error) -> {
+                    if (error != null) {
+                        Throwable cause = DarajaGateway.unwrap(error);
+                        IOException io = cause instanceof IOException e ? e
+                                // No pooled connection in time (the async pool's lease timeout): nothing was sent
+                                : cause instanceof DeadlineTimeoutException ? new ConnectionRequestTimeoutException(cause.getMessage())
+                                : new IOException(cause);
+                        throw new ResourceAccessException("Daraja " + operation + " I/O error: " + cause.getMessage(), io);
+                    }
+                    return toMap(resp);
+                }, completions));
+    }
+
+    private CompletableFuture<SimpleHttpResponse> execute(SimpleHttpRequest request) {
+        CompletableFuture<SimpleHttpResponse> result = new CompletableFuture<>();
+        http.execute(request, new FutureCallback<>() {
+            @Override
+            public void completed(SimpleHttpResponse response) {
+                result.complete(response);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> toMap(SimpleHttpResponse resp) {
+        int status = resp.getCode();
+        byte[] body = resp.getBodyBytes();
+        if (status >= 400) {
+            HttpStatusCode code = HttpStatusCode.valueOf(status);
+            HttpHeaders headers = new HttpHeaders();
+            for (Header h : resp.getHeaders()) headers.add(h.getName(), h.getValue());
+            throw status >= 500
+                    ? HttpServerErrorException.create(code, "", headers, body, StandardCharsets.UTF_8)
+                    : HttpClientErrorException.create(code, "", headers, body, StandardCharsets.UTF_8);
+        }
+        if (body == null || body.length == 0) throw new RuntimeException("Empty Daraja response");
+        return jsonMapper.readValue(body, Map.class);
+    }
+}
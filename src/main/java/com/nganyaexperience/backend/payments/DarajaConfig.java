@@ -30,7 +30,12 @@ public class DarajaConfig {
     @Value("${DARAJA_PARTYB:174379}")
     public String partyB;
 
+    // Optional override, e.g. the local simulator (profile daraja-sim)
+    @Value("${DARAJA_BASE_URL:}")
+    public String baseUrlOverride;
+
     public String baseUrl() {
+        if (baseUrlOverride != null && !baseUrlOverride.isBlank()) return baseUrlOverride;
         // sandbox.safaricom.co.ke vs api.safaricom.co.ke
         return "production".equalsIgnoreCase(env)
                 ? "https://api.safaricom.co.ke"
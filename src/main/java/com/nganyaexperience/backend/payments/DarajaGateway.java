@@ -0,0 +1,254 @@
+package com.nganyaexperience.backend.payments;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Every outbound Daraja call goes through here.
+ * <ul>
+ *     <li>Bulkhead: at most app.daraja.max-concurrent calls in flight; extra callers wait briefly, then get 503.
+ *     A slow Safaricom can only tie up that many request threads.</li>
+ *     <li>Circuit breaker: when the failure rate over the last app.daraja.breaker.window calls reaches the threshold,
+ *     calls fail fast with 503 for app.daraja.breaker.open-seconds, then one probe call decides whether to close again.</li>
+ *     <li>Retries with jittered backoff, only via {@link #callIdempotent} (OAuth token, STK Push Query).
+ *     An STK push is never retried here: a retry could prompt the customer twice.</li>
+ * </ul>
+ * Failures are timeouts / connection errors, 5xx and 429. Other 4xx are the caller's problem and do not count.
+ */
+@Slf4j
+@Component
+public class DarajaGateway {
+
+    // Daraja's "transaction is being processed" answer to STK Push Query comes back as HTTP 500
+    private static final String QUERY_STILL_PROCESSING = "500.001.1001";
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final Semaphore bulkhead;
+    private final long bulkheadWaitMs;
+    private final int maxAttempts;
+    private final long retryBaseMs;
+
+    private final int window;
+    private final int minCalls;
+    private final double failureRateThreshold;
+    private final long openMillis;
+
+    // Breaker state (guarded by lock; not synchronized, so a virtual thread logging a state change is not pinned)
+    private final ReentrantLock lock = new ReentrantLock();
+    private State state = State.CLOSED;
+    private final boolean[] outcomes;
+    private int next;
+    private int recorded;
+    private int failures;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    public DarajaGateway(
+            @Value("${app.daraja.max-concurrent:20}") int maxConcurrent,
+            @Value("${app.daraja.bulkhead-wait-ms:200}") long bulkheadWaitMs,
+            @Value("${app.daraja.retry.max-attempts:3}") int maxAttempts,
+            @Value("${app.daraja.retry.base-ms:200}") long retryBaseMs,
+            @Value("${app.daraja.breaker.window:20}") int window,
+            @Value("${app.daraja.breaker.min-calls:10}") int minCalls,
+            @Value("${app.daraja.breaker.failure-rate:0.5}") double failureRateThreshold,
+            @Value("${app.daraja.breaker.open-seconds:30}") long openSeconds
+    ) {
+        this.bulkhead = new Semaphore(maxConcurrent);
+        this.bulkheadWaitMs = bulkheadWaitMs;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBaseMs = retryBaseMs;
+        this.window = window;
+        this.minCalls = minCalls;
+        this.failureRateThreshold = failureRateThreshold;
+        this.openMillis = openSeconds * 1000;
+        this.outcomes = new boolean[window];
+    }
+
+    /**
+     * One attempt, no retry (STK push).
+     */
+    public <T> T call(String operation, Supplier<T> call) {
+        return attempt(operation, call);
+    }
+
+    /**
+     * Up to app.daraja.retry.max-attempts attempts for calls that are safe to repeat.
+     */
+    public <T> T callIdempotent(String operation, Supplier<T> call) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return attempt(operation, call);
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts || !isFailure(e)) throw e;
+                sleepBeforeRetry(attempt);
+            }
+        }
+    }
+
+    /**
+     * Non-blocking variant of {@link #call}: same breaker and bulkhead, but a full bulkhead fails at once
+     * instead of waiting, and the permit is held until the future completes.
+     */
+    public <T> CompletableFuture<T> callAsync(String operation, Supplier<CompletableFuture<T>> call) {
+        try {
+            acquirePermission(operation);
+        } catch (DarajaUnavailableException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (!bulkhead.tryAcquire()) {
+            releaseProbe();
+            return CompletableFuture.failedFuture(new DarajaUnavailableException("Payment service is busy, please try again", 2));
+        }
+
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            bulkhead.release();
+            record(!isFailure(e));
+            return CompletableFuture.failedFuture(e);
+        }
+        return future.whenComplete((result, error) -> {
+            bulkhead.release();
+            record(error == null || !isFailure(unwrap(error)));
+        });
+    }
+
+    public static Throwable unwrap(Throwable e) {
+        return (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+    }
+
+    private <T> T attempt(String operation, Supplier<T> call) {
+        acquirePermission(operation);
+        boolean acquired = false;
+        try {
+            acquired = bulkhead.tryAcquire(bulkheadWaitMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!acquired) {
+            releaseProbe();
+            throw new DarajaUnavailableException("Payment service is busy, please try again", 2);
+        }
+
+        try {
+            T result = call.get();
+            record(true);
+            return result;
+        } catch (RuntimeException e) {
+            record(!isFailure(e));
+            throw e;
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    private void acquirePermission(String operation) {
+        lock.lock();
+        try {
+            if (state == State.OPEN) {
+                long waited = System.currentTimeMillis() - openedAt;
+                if (waited < openMillis) {
+                    throw new DarajaUnavailableException("Payment service is temporarily unavailable, please try again shortly",
+                            Math.max(1, (openMillis - waited) / 1000));
+                }
+                state = State.HALF_OPEN;
+            }
+            if (state == State.HALF_OPEN) {
+                if (probeInFlight) {
+                    throw new DarajaUnavailableException("Payment service is temporarily unavailable, please try again shortly", 1);
+                }
+                probeInFlight = true;
+                log.info("Daraja circuit half-open, probing with {}", operation);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releaseProbe() {
+        lock.lock();
+        try {
+            probeInFlight = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void record(boolean success) {
+        lock.lock();
+        try {
+            if (state == State.HALF_OPEN) {
+                probeInFlight = false;
+                if (success) {
+                    reset();
+                    state = State.CLOSED;
+                    log.info("Daraja circuit closed");
+                } else {
+                    open();
+                }
+                return;
+            }
+
+            if (recorded == window) {
+                if (!outcomes[next]) failures--;
+            } else {
+                recorded++;
+            }
+            outcomes[next] = success;
+            if (!success) failures++;
+            next = (next + 1) % window;
+
+            if (state == State.CLOSED && recorded >= minCalls && failures >= failureRateThreshold * recorded) {
+                open();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        log.warn("Daraja circuit OPEN ({} of last {} calls failed)", failures, recorded);
+        reset();
+    }
+
+    private void reset() {
+        next = 0;
+        recorded = 0;
+        failures = 0;
+    }
+
+    private static boolean isFailure(Throwable e) {
+        if (e instanceof ResourceAccessException) return true;
+        if (e instanceof HttpServerErrorException se) {
+            return !se.getResponseBodyAsString().contains(QUERY_STILL_PROCESSING);
+        }
+        if (e instanceof HttpClientErrorException.TooManyRequests) return true;
+        return false;
+    }
+
+    // Full jitter: random wait in [0, base * 2^(attempt-1))
+    private void sleepBeforeRetry(int attempt) {
+        long cap = retryBaseMs << Math.min(attempt - 1, 10);
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(Math.max(1, cap)));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
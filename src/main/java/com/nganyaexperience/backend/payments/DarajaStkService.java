@@ -7,6 +7,7 @@ import java.util.Base64;
 
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
 @Service
@@ -14,13 +15,16 @@ public class DarajaStkService {
 
     private final DarajaConfig cfg;
     private final AccessTokenService tokens;
-    private final RestTemplate rest = new RestTemplate();
+    private final RestTemplate rest;
+    private final DarajaGateway gateway;
 
     private static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
 
-    public DarajaStkService(DarajaConfig cfg, AccessTokenService tokens) {
+    public DarajaStkService(DarajaConfig cfg, AccessTokenService tokens, RestTemplate rest, DarajaGateway gateway) {
         this.cfg = cfg;
         this.tokens = tokens;
+        this.rest = rest;
+        this.gateway = gateway;
     }
 
     public StkPushResponse stkPush(String phone254, int amount, String accountRef, String desc) {
@@ -30,8 +34,6 @@ public class DarajaStkService {
         );
 
         String url = cfg.baseUrl() + "/mpesa/stkpush/v1/processrequest";
-        String token = tokens.getAccessToken();
-
         StkPushRequest body = new StkPushRequest();
         body.BusinessShortCode = cfg.shortcode;
         body.Password = password;
@@ -45,14 +47,7 @@ public class DarajaStkService {
         body.AccountReference = accountRef;
         body.TransactionDesc = desc;
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setBearerAuth(token);
-
-        HttpEntity<StkPushRequest> req = new HttpEntity<>(body, headers);
-
-        ResponseEntity<StkPushResponse> res = rest.exchange(url, HttpMethod.POST, req, StkPushResponse.class);
-        return res.getBody();
+        return postWithToken("stkpush", url, body, StkPushResponse.class);
     }
 
     public Object stkQuery(String checkoutRequestId) {
@@ -62,21 +57,41 @@ public class DarajaStkService {
         );
 
         String url = cfg.baseUrl() + "/mpesa/stkpushquery/v1/query";
-        String token = tokens.getAccessToken();
-
         var payload = new java.util.HashMap<String, Object>();
         payload.put("BusinessShortCode", cfg.shortcode);
         payload.put("Password", password);
         payload.put("Timestamp", timestamp);
         payload.put("CheckoutRequestID", checkoutRequestId);
 
+        return postWithToken("stkquery", url, payload, Object.class);
+    }
+
+    // POST with the cached token; if Daraja rejects it (401), drop it and retry once with a fresh one.
+    // Only the query is retried on transient errors (a repeated push would prompt the customer twice).
+    private <T> T postWithToken(String operation, String url, Object body, Class<T> type) {
+        String token = tokens.getAccessToken();
+        try {
+            return send(operation, url, body, token, type);
+        } catch (HttpClientErrorException.Unauthorized e) {
+            tokens.evict(token);
+            return send(operation, url, body, tokens.getAccessToken(), type);
+        }
+    }
+
+    private <T> T send(String operation, String url, Object body, String token, Class<T> type) {
+        return "stkquery".equals(operation)
+                ? gateway.callIdempotent(operation, () -> post(url, body, token, type))
+                : gateway.call(operation, () -> post(url, body, token, type));
+    }
+
+    private <T> T post(String url, Object body, String token, Class<T> type) {
         HttpHeaders headers = new HttpHeaders();
         headers.setContentType(MediaType.APPLICATION_JSON);
         headers.setBearerAuth(token);
 
-        HttpEntity<Object> req = new HttpEntity<>(payload, headers);
+        HttpEntity<Object> req = new HttpEntity<>(body, headers);
 
-        return rest.exchange(url, HttpMethod.POST, req, Object.class).getBody();
+        return rest.exchange(url, HttpMethod.POST, req, type).getBody();
     }
 
     public static class StkPushRequest {
@@ -0,0 +1,201 @@
+package com.nganyaexperience.backend.payments;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.*;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Daraja OAuth tokens, cached per (base URL, consumer key).
+ * <p>
+ * A token is reused until shortly before expires_in runs out. Only one caller per key fetches a new
+ * token while the others wait for it (single-flight), and a background job renews tokens that are
+ * about to expire so the STK push path normally never waits on /oauth/v1/generate.
+ * Callers that get a 401 with a cached token call {@link #evict} and ask again.
+ */
+@Slf4j
+@Component
+public class DarajaTokenCache {
+
+    // Daraja tokens live 3599s; used if expires_in is missing or unreadable
+    private static final long DEFAULT_EXPIRES_IN_SECONDS = 3599;
+
+    private record Token(String value, Instant expiresAt) {
+    }
+
+    private static final class Slot {
+        final String baseUrl;
+        final String consumerKey;
+        final String consumerSecret;
+        // Not synchronized: the OAuth call happens while holding it, which would pin a virtual thread
+        final ReentrantLock lock = new ReentrantLock();
+        volatile Token token;
+
+        Slot(String baseUrl, String consumerKey, String consumerSecret) {
+            this.baseUrl = baseUrl;
+            this.consumerKey = consumerKey;
+            this.consumerSecret = consumerSecret;
+        }
+    }
+
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+    private final RestTemplate restTemplate;
+    private final DarajaGateway gateway;
+
+    // Stop handing out a token this long before it expires
+    private final long expirySkewSeconds;
+    // Background refresh renews tokens this long before they expire
+    private final long refreshAheadSeconds;
+
+    public DarajaTokenCache(
+            RestTemplate restTemplate,
+            DarajaGateway gateway,
+            @Value("${app.daraja.token-expiry-skew-seconds:60}") long expirySkewSeconds,
+            @Value("${app.daraja.token-refresh-ahead-seconds:300}") long refreshAheadSeconds
+    ) {
+        this.restTemplate = restTemplate;
+        this.gateway = gateway;
+        this.expirySkewSeconds = expirySkewSeconds;
+        this.refreshAheadSeconds = refreshAheadSeconds;
+    }
+
+    /**
+     * A handle bound to one (base URL, consumer key), for callers that resolve it once up front
+     * (PaymentRoutingRegistry) instead of per request.
+     */
+    public final class TokenHandle {
+        private final Slot slot;
+
+        private TokenHandle(Slot slot) {
+            this.slot = slot;
+        }
+
+        public String get() {
+            return getToken(slot);
+        }
+
+        public void evict(String rejectedToken) {
+            DarajaTokenCache.this.evict(slot, rejectedToken);
+        }
+
+        // Cached token if usable, else null (never blocks; async callers fetch on their own executor)
+        public String peek() {
+            Token t = slot.token;
+            return usable(t, expirySkewSeconds) ? t.value() : null;
+        }
+    }
+
+    public TokenHandle handle(String baseUrl, String consumerKey, String consumerSecret) {
+        return new TokenHandle(slot(baseUrl, consumerKey, consumerSecret));
+    }
+
+    public String getToken(String baseUrl, String consumerKey, String consumerSecret) {
+        return getToken(slot(baseUrl, consumerKey, consumerSecret));
+    }
+
+    private Slot slot(String baseUrl, String consumerKey, String consumerSecret) {
+        return slots.computeIfAbsent(baseUrl + "|" + consumerKey,
+                k -> new Slot(baseUrl, consumerKey, consumerSecret));
+    }
+
+    private String getToken(Slot slot) {
+        Token t = slot.token;
+        if (usable(t, expirySkewSeconds)) return t.value();
+
+        slot.lock.lock();
+        try {
+            // Another caller may have fetched it while we waited
+            t = slot.token;
+            if (usable(t, expirySkewSeconds)) return t.value();
+            t = fetch(slot);
+            slot.token = t;
+            return t.value();
+        } finally {
+            slot.lock.unlock();
+        }
+    }
+
+    /**
+     * Drop a token Daraja rejected (401). Only that exact token is dropped, so a
+     * token another caller already refreshed is kept.
+     */
+    public void evict(String baseUrl, String consumerKey, String rejectedToken) {
+        Slot slot = slots.get(baseUrl + "|" + consumerKey);
+        if (slot != null) evict(slot, rejectedToken);
+    }
+
+    private void evict(Slot slot, String rejectedToken) {
+        slot.lock.lock();
+        try {
+            Token t = slot.token;
+            if (t != null && t.value().equals(rejectedToken)) slot.token = null;
+        } finally {
+            slot.lock.unlock();
+        }
+    }
+
+    // ✅ Renew tokens that are close to expiry before any request needs them
+    @Scheduled(fixedDelayString = "${app.daraja.token-refresh-interval-ms:60000}")
+    public void refreshAhead() {
+        for (Slot slot : slots.values()) {
+            if (usable(slot.token, refreshAheadSeconds)) continue;
+            slot.lock.lock();
+            try {
+                if (usable(slot.token, refreshAheadSeconds)) continue;
+                slot.token = fetch(slot);
+            } catch (RuntimeException e) {
+                // Keep the old token (if still valid); callers retry on demand
+                log.warn("Daraja token refresh failed for {}: {}", slot.baseUrl, e.getMessage());
+            } finally {
+                slot.lock.unlock();
+            }
+        }
+    }
+
+    private static boolean usable(Token t, long marginSeconds) {
+        return t != null && Instant.now().plusSeconds(marginSeconds).isBefore(t.expiresAt());
+    }
+
+    private Token fetch(Slot slot) {
+        if (slot.consumerKey == null || slot.consumerKey.isBlank()
+                || slot.consumerSecret == null || slot.consumerSecret.isBlank()) {
+            throw new RuntimeException("Missing Daraja consumer key / secret");
+        }
+
+        String basic = Base64.getEncoder().encodeToString(
+                (slot.consumerKey + ":" + slot.consumerSecret).getBytes(StandardCharsets.UTF_8));
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Authorization", "Basic " + basic);
+
+        ResponseEntity<AccessTokenService.TokenResponse> resp = gateway.callIdempotent("oauth", () -> restTemplate.exchange(
+                slot.baseUrl + "/oauth/v1/generate?grant_type=client_credentials",
+                HttpMethod.GET,
+                new HttpEntity<Void>(headers),
+                AccessTokenService.TokenResponse.class
+        ));
+
+        AccessTokenService.TokenResponse body = resp.getBody();
+        if (body == null || body.access_token == null) {
+            throw new RuntimeException("Failed to obtain Daraja access token");
+        }
+        return new Token(body.access_token, Instant.now().plusSeconds(expiresIn(body.expires_in)));
+    }
+
+    private static long expiresIn(String raw) {
+        try {
+            return raw == null ? DEFAULT_EXPIRES_IN_SECONDS : Long.parseLong(raw.trim());
+        } catch (NumberFormatException e) {
+            return DEFAULT_EXPIRES_IN_SECONDS;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.nganyaexperience.backend.payments;
+
+/**
+ * Daraja is not being called right now: circuit open or too many calls already in flight.
+ * Mapped to 503 by ApiExceptionHandler.
+ */
+public class DarajaUnavailableException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public DarajaUnavailableException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
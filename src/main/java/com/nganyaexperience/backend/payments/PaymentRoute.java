@@ -0,0 +1,63 @@
+package com.nganyaexperience.backend.payments;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+
+/**
+ * Everything an STK push / query needs for one shortcode (Paybill) or till, resolved once.
+ * The password is Base64(shortcode + passkey + timestamp); the Timestamp/Password pair is reused
+ * for every call within the same second.
+ */
+public final class PaymentRoute {
+
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    public record Stamp(long epochSecond, String timestamp, String password) {
+    }
+
+    private final String shortcode;
+    private final String transactionType;
+    private final String partyB;
+    private final String passwordPrefix;
+    private final DarajaTokenCache.TokenHandle token;
+    private volatile Stamp last;
+
+    PaymentRoute(String shortcode, String transactionType, String partyB, String passkey, DarajaTokenCache.TokenHandle token) {
+        this.shortcode = shortcode;
+        this.transactionType = transactionType;
+        this.partyB = partyB;
+        this.passwordPrefix = shortcode + passkey;
+        this.token = token;
+    }
+
+    public String shortcode() {
+        return shortcode;
+    }
+
+    public String transactionType() {
+        return transactionType;
+    }
+
+    public String partyB() {
+        return partyB;
+    }
+
+    public DarajaTokenCache.TokenHandle token() {
+        return token;
+    }
+
+    public Stamp stamp() {
+        long now = System.currentTimeMillis() / 1000;
+        Stamp s = last;
+        if (s != null && s.epochSecond() == now) return s;
+
+        String timestamp = LocalDateTime.now().format(TIMESTAMP);
+        String password = Base64.getEncoder()
+                .encodeToString((passwordPrefix + timestamp).getBytes(StandardCharsets.UTF_8));
+        s = new Stamp(now, timestamp, password);
+        last = s;
+        return s;
+    }
+}
@@ -0,0 +1,136 @@
+package com.nganyaexperience.backend.payments;
+
+import com.nganyaexperience.backend.entity.Event;
+import com.nganyaexperience.backend.repository.EventRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * STK routing per shortcode / till (Event.paymentNumber): transaction type, PartyB, passkey material
+ * and the OAuth token handle, resolved once instead of on every push.
+ * Built at startup from the events and refreshed by the admin event endpoints.
+ * Env overrides (DARAJA_TRANSACTION_TYPE / DARAJA_PARTYB) are read once here.
+ */
+@Slf4j
+@Component
+public class PaymentRoutingRegistry {
+
+    private static final String PAYBILL = "CustomerPayBillOnline";
+    private static final String BUY_GOODS = "CustomerBuyGoodsOnline";
+
+    private final EventRepository eventRepository;
+    private final DarajaTokenCache tokenCache;
+
+    private final String baseUrl;
+    private final String consumerKey;
+    private final String consumerSecret;
+    private final String passkey;
+    private final String defaultShortcode;
+    private final String transactionTypeOverride;
+    private final String partyBOverride;
+
+    private final Map<String, PaymentRoute> routes = new ConcurrentHashMap<>();
+    private volatile DarajaTokenCache.TokenHandle token;
+
+    public PaymentRoutingRegistry(
+            EventRepository eventRepository,
+            DarajaTokenCache tokenCache,
+            @Value("${mpesa.env:sandbox}") String env,
+            @Value("${mpesa.base-url:}") String baseUrlOverride,
+            @Value("${mpesa.consumer-key:}") String consumerKey,
+            @Value("${mpesa.consumer-secret:}") String consumerSecret,
+            @Value("${mpesa.passkey:}") String passkey,
+            @Value("${mpesa.default-shortcode:174379}") String defaultShortcode,
+            @Value("${DARAJA_TRANSACTION_TYPE:}") String transactionTypeOverride,
+            @Value("${DARAJA_PARTYB:}") String partyBOverride
+    ) {
+        this.eventRepository = eventRepository;
+        this.tokenCache = tokenCache;
+        // Optional override, e.g. the local simulator (profile daraja-sim)
+        this.baseUrl = !isBlank(baseUrlOverride) ? baseUrlOverride
+                : "production".equalsIgnoreCase(env) ? "https://api.safaricom.co.ke"
+                : "https://sandbox.safaricom.co.ke";
+        this.consumerKey = consumerKey;
+        this.consumerSecret = consumerSecret;
+        this.passkey = passkey;
+        this.defaultShortcode = defaultShortcode;
+        this.transactionTypeOverride = isBlank(transactionTypeOverride) ? null : transactionTypeOverride.trim();
+        this.partyBOverride = isBlank(partyBOverride) ? null : partyBOverride.trim();
+    }
+
+    public String baseUrl() {
+        return baseUrl;
+    }
+
+    public DarajaTokenCache.TokenHandle token() {
+        DarajaTokenCache.TokenHandle t = token;
+        if (t != null) return t;
+        if (isBlank(consumerKey) || isBlank(consumerSecret)) {
+            throw new RuntimeException("Missing MPESA_CONSUMER_KEY / MPESA_CONSUMER_SECRET");
+        }
+        t = tokenCache.handle(baseUrl, consumerKey, consumerSecret);
+        token = t;
+        return t;
+    }
+
+    /**
+     * Route for an event's STK push.
+     */
+    public PaymentRoute forEvent(Event event) {
+        String shortcode = isBlank(event.getPaymentNumber()) ? defaultShortcode : event.getPaymentNumber().trim();
+        String txType = transactionTypeOverride != null ? transactionTypeOverride
+                : event.getPaymentMethod() == Event.PaymentMethod.TILL ? BUY_GOODS : PAYBILL;
+
+        PaymentRoute route = routes.get(shortcode);
+        // Same number reused with a different method: rebuild rather than push with the wrong type
+        if (route == null || !route.transactionType().equals(txType)) {
+            route = build(shortcode, txType);
+            routes.put(shortcode, route);
+        }
+        return route;
+    }
+
+    /**
+     * Route for an STK Push Query (only shortcode + password matter).
+     */
+    public PaymentRoute forShortcode(String shortcodeOrNull) {
+        String shortcode = isBlank(shortcodeOrNull) ? defaultShortcode : shortcodeOrNull.trim();
+        return routes.computeIfAbsent(shortcode, s -> build(s, transactionTypeOverride != null ? transactionTypeOverride : PAYBILL));
+    }
+
+    // ✅ Rebuild from the events (startup and after admin event changes)
+    @EventListener(ApplicationReadyEvent.class)
+    public void refresh() {
+        if (isBlank(passkey) || isBlank(consumerKey) || isBlank(consumerSecret)) {
+            // Not configured: nothing to precompute; pushes fail with the "Missing MPESA_..." error as before
+            routes.clear();
+            return;
+        }
+        Map<String, PaymentRoute> fresh = new ConcurrentHashMap<>();
+        for (Event e : eventRepository.findAll()) {
+            String shortcode = isBlank(e.getPaymentNumber()) ? defaultShortcode : e.getPaymentNumber().trim();
+            String txType = transactionTypeOverride != null ? transactionTypeOverride
+                    : e.getPaymentMethod() == Event.PaymentMethod.TILL ? BUY_GOODS : PAYBILL;
+            fresh.putIfAbsent(shortcode, build(shortcode, txType));
+        }
+        routes.keySet().retainAll(fresh.keySet());
+        routes.putAll(fresh);
+        log.info("Payment routing loaded for {} shortcode(s)", fresh.size());
+    }
+
+    private PaymentRoute build(String shortcode, String txType) {
+        if (isBlank(passkey)) throw new RuntimeException("Missing MPESA_PASSKEY");
+        String partyB = partyBOverride != null ? partyBOverride : shortcode;
+        return new PaymentRoute(shortcode, txType, partyB, passkey, token());
+    }
+
+    private static boolean isBlank(String s) {
+        return s == null || s.isBlank();
+    }
+}
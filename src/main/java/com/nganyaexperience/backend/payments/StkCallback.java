@@ -0,0 +1,29 @@
+package com.nganyaexperience.backend.payments;
+
+/**
+ * Body.stkCallback of a Daraja STK push callback.
+ * metadata is only present on success (ResultCode 0).
+ */
+public record StkCallback(
+        String merchantRequestId,
+        String checkoutRequestId,
+        Integer resultCode,
+        String resultDesc,
+        CallbackMetadata metadata
+) {
+
+    public boolean isSuccess() {
+        return resultCode != null && resultCode == 0;
+    }
+
+    /**
+     * The CallbackMetadata.Item entries we use.
+     */
+    public record CallbackMetadata(
+            Double amount,
+            String mpesaReceiptNumber,
+            String phoneNumber,
+            String transactionDate
+    ) {
+    }
+}
@@ -0,0 +1,144 @@
+package com.nganyaexperience.backend.payments;
+
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.core.json.JsonFactory;
+
+import java.io.IOException;
+
+/**
+ * Single-pass streaming parser for Daraja STK callbacks.
+ * <p>
+ * Reads only Body.stkCallback and its CallbackMetadata items (Amount, MpesaReceiptNumber, PhoneNumber,
+ * TransactionDate) straight off the token stream; everything else is skipped without building a tree.
+ * ResultCode and item values are accepted as numbers or strings.
+ * Uses Jackson 3 (the same core as the application's JsonMapper); its unchecked read errors are reported as
+ * IOException, like a payload that is not an object.
+ */
+public final class StkCallbackParser {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private StkCallbackParser() {
+    }
+
+    /**
+     * @return the callback, or null if the payload has no Body.stkCallback
+     */
+    public static StkCallback parse(String json) throws IOException {
+        try (JsonParser p = FACTORY.createParser(json)) {
+            return parse(p);
+        } catch (JacksonException e) {
+            throw new IOException("Malformed callback: " + e.getOriginalMessage(), e);
+        }
+    }
+
+    public static StkCallback parse(byte[] json) throws IOException {
+        try (JsonParser p = FACTORY.createParser(json)) {
+            return parse(p);
+        } catch (JacksonException e) {
+            throw new IOException("Malformed callback: " + e.getOriginalMessage(), e);
+        }
+    }
+
+    private static StkCallback parse(JsonParser p) throws IOException {
+        if (p.nextToken() != JsonToken.START_OBJECT) throw new IOException("Callback is not a JSON object");
+
+        StkCallback result = null;
+        while (p.nextToken() == JsonToken.PROPERTY_NAME) {
+            String name = p.currentName();
+            p.nextToken();
+            if ("Body".equals(name) && p.currentToken() == JsonToken.START_OBJECT) {
+                while (p.nextToken() == JsonToken.PROPERTY_NAME) {
+                    String bodyField = p.currentName();
+                    p.nextToken();
+                    if ("stkCallback".equals(bodyField) && p.currentToken() == JsonToken.START_OBJECT) {
+                        result = readStkCallback(p);
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+            } else {
+                p.skipChildren();
+            }
+        }
+        return result;
+    }
+
+    private static StkCallback readStkCallback(JsonParser p) throws IOException {
+        String merchantRequestId = null;
+        String checkoutRequestId = null;
+        Integer resultCode = null;
+        String resultDesc = null;
+        StkCallback.CallbackMetadata metadata = null;
+
+        while (p.nextToken() == JsonToken.PROPERTY_NAME) {
+            String name = p.currentName();
+            JsonToken t = p.nextToken();
+            switch (name) {
+                case "MerchantRequestID" -> merchantRequestId = p.getValueAsString();
+                case "CheckoutRequestID" -> checkoutRequestId = p.getValueAsString();
+                case "ResultCode" -> resultCode = t == JsonToken.VALUE_NULL ? null : p.getValueAsInt();
+                case "ResultDesc" -> resultDesc = p.getValueAsString();
+                case "CallbackMetadata" -> metadata = t == JsonToken.START_OBJECT ? readMetadata(p) : skip(p);
+                default -> p.skipChildren();
+            }
+        }
+        return new StkCallback(merchantRequestId, checkoutRequestId, resultCode, resultDesc, metadata);
+    }
+
+    // { "Item": [ { "Name": "Amount", "Value": 1.0 }, { "Name": "MpesaReceiptNumber", "Value": "..." }, ... ] }
+    private static StkCallback.CallbackMetadata readMetadata(JsonParser p) throws IOException {
+        Double amount = null;
+        String receipt = null;
+        String phone = null;
+        String transactionDate = null;
+
+        while (p.nextToken() == JsonToken.PROPERTY_NAME) {
+            String name = p.currentName();
+            if (p.nextToken() != JsonToken.START_ARRAY || !"Item".equals(name)) {
+                p.skipChildren();
+                continue;
+            }
+            while (p.nextToken() == JsonToken.START_OBJECT) {
+                String itemName = null;
+                String value = null;
+                while (p.nextToken() == JsonToken.PROPERTY_NAME) {
+                    String field = p.currentName();
+                    JsonToken t = p.nextToken();
+                    if ("Name".equals(field)) {
+                        itemName = p.getValueAsString();
+                    } else if ("Value".equals(field) && t.isScalarValue()) {
+                        value = p.getValueAsString();
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+                if (itemName == null || value == null) continue;
+                switch (itemName) {
+                    case "Amount" -> amount = parseAmount(value);
+                    case "MpesaReceiptNumber" -> receipt = value;
+                    case "PhoneNumber" -> phone = value;
+                    case "TransactionDate" -> transactionDate = value;
+                    default -> {
+                    }
+                }
+            }
+        }
+        return new StkCallback.CallbackMetadata(amount, receipt, phone, transactionDate);
+    }
+
+    private static StkCallback.CallbackMetadata skip(JsonParser p) throws IOException {
+        p.skipChildren();
+        return null;
+    }
+
+    private static Double parseAmount(String v) {
+        try {
+            return Double.valueOf(v);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
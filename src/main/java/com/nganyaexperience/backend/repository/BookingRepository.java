@@ -2,12 +2,89 @@ package com.nganyaexperience.backend.repository;
 
 import com.nganyaexperience.backend.entity.Booking;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 
 public interface BookingRepository extends JpaRepository<Booking, Long> {
 
     // 🔥 Count how many bookings exist for a given ticket type
     long countByTicketTypeId(Long ticketTypeId);
 
+    // 🔥 Booked seats per ticket type and payment status in ONE query (replaces per-ticket counting)
+    @Query("""
+            select b.ticketType.id as ticketTypeId, b.paymentStatus as paymentStatus, sum(coalesce(b.quantity, 1)) as total
+            from Booking b
+            where b.ticketType.id in :ticketTypeIds
+            group by b.ticketType.id, b.paymentStatus
+            """)
+    List<TicketTypeStatusCount> sumSeatsByTicketTypeIdsGroupByStatus(@Param("ticketTypeIds") Collection<Long> ticketTypeIds);
+
+    // 🔥 Seats held by PENDING bookings, per ticket type (inventory rebuild on startup)
+    @Query("""
+            select b.ticketType.id as ticketTypeId, sum(coalesce(b.quantity, 1)) as total
+            from Booking b
+            where b.ticketType.id in :ticketTypeIds
+              and b.paymentStatus = com.nganyaexperience.backend.entity.Booking.PaymentStatus.PENDING
+              and b.holdExpiresAt is not null
+            group by b.ticketType.id
+            """)
+    List<TicketTypeHoldCount> sumHeldSeatsByTicketTypeIds(@Param("ticketTypeIds") Collection<Long> ticketTypeIds);
+
     // 🔥 Delete all bookings for a given ticket type
     void deleteAllByTicketTypeId(Long ticketTypeId);
+
+    // ---------------------------
+    // SEAT HOLDS (conditional updates so callback, retry and sweeper never both own a hold)
+    // ---------------------------
+
+    // Give the booking a hold it does not have yet
+    @Modifying
+    @Query("update Booking b set b.holdExpiresAt = :expiresAt where b.id = :id and b.holdExpiresAt is null")
+    int attachHold(@Param("id") Long bookingId, @Param("expiresAt") Instant expiresAt);
+
+    // Extend an existing hold (payment retry)
+    @Modifying
+    @Query("update Booking b set b.holdExpiresAt = :expiresAt where b.id = :id and b.holdExpiresAt is not null")
+    int renewHold(@Param("id") Long bookingId, @Param("expiresAt") Instant expiresAt);
+
+    // Take the hold away from the booking (paid or failed). Returns 1 only if it still had one.
+    @Modifying
+    @Query("update Booking b set b.holdExpiresAt = null where b.id = :id and b.holdExpiresAt is not null")
+    int detachHold(@Param("id") Long bookingId);
+
+    /**
+     * The PAID transition. Returns 1 for exactly one caller: a concurrent duplicate (redelivered callback,
+     * reconciler, admin) waits on the row lock, then sees it already paid and gets 0.
+     */
+    @Modifying
+    @Query("""
+            update Booking b set b.paymentStatus = com.nganyaexperience.backend.entity.Booking.PaymentStatus.PAID
+            where b.id = :id
+              and (b.paymentStatus <> com.nganyaexperience.backend.entity.Booking.PaymentStatus.PAID or b.ticketCode is null)
+            """)
+    int markPaid(@Param("id") Long bookingId);
+
+    /**
+     * Cancel one batch of PENDING bookings whose hold expired, in a single statement.
+     * Returns ticket type + seats of every cancelled booking so the held counters can be released.
+     * The alias is quoted: Postgres folds unquoted aliases to lower case and the projection would get null.
+     */
+    @Query(value = """
+            UPDATE bookings
+            SET payment_status = 'CANCELLED', hold_expires_at = NULL
+            WHERE id IN (
+                SELECT id FROM bookings
+                WHERE payment_status = 'PENDING' AND hold_expires_at < :now
+                ORDER BY hold_expires_at
+                LIMIT :batchSize
+                FOR UPDATE SKIP LOCKED
+            )
+            RETURNING ticket_type_id AS "ticketTypeId", COALESCE(quantity, 1) AS seats
+            """, nativeQuery = true)
+    List<ExpiredHold> cancelExpiredHolds(@Param("now") Instant now, @Param("batchSize") int batchSize);
 }
@@ -0,0 +1,29 @@
+package com.nganyaexperience.backend.repository;
+
+import com.nganyaexperience.backend.entity.Event;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+
+/**
+ * Keyset paging over events, as SQL built for the filters actually given (see EventPageRepositoryImpl).
+ */
+public interface EventPageRepository {
+
+    /**
+     * Ids of one page ordered by (date, time, id); undated events and events without a time sort last.
+     * Every filter is optional (null = no filter). afterId (with afterDate / afterTime, either may be null)
+     * is the last row of the previous page.
+     */
+    List<Long> findPageIds(
+            Event.Status status,
+            LocalDate fromDate,
+            LocalDate toDate,
+            String locationPattern,
+            LocalDate afterDate,
+            LocalTime afterTime,
+            Long afterId,
+            int limit
+    );
+}
@@ -0,0 +1,75 @@
+package com.nganyaexperience.backend.repository;
+
+import com.nganyaexperience.backend.entity.Event;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One statement per filter combination, so Postgres can seek the paging indexes (V5) instead of
+ * evaluating "param is null or ..." for every row:
+ * <pre>
+ *   WHERE [status = ?] [AND filters] AND (date_key, time_key, id) &gt; (?, ?, ?)
+ *   ORDER BY date_key, time_key, id LIMIT ?
+ * </pre>
+ * date_key / time_key are the nullable columns coalesced to 'infinity' / '24:00', i.e. nulls sort last.
+ */
+@RequiredArgsConstructor
+public class EventPageRepositoryImpl implements EventPageRepository {
+
+    // Must match the expressions of idx_events_page / idx_events_status_page
+    private static final String DATE_KEY = "COALESCE(e.date, 'infinity'::date)";
+    private static final String TIME_KEY = "COALESCE(e.time, '24:00'::time)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public List<Long> findPageIds(
+            Event.Status status,
+            LocalDate fromDate,
+            LocalDate toDate,
+            String locationPattern,
+            LocalDate afterDate,
+            LocalTime afterTime,
+            Long afterId,
+            int limit
+    ) {
+        StringBuilder sql = new StringBuilder("SELECT e.id FROM events e WHERE TRUE");
+        List<Object> args = new ArrayList<>();
+
+        if (status != null) {
+            sql.append(" AND e.status = ?");
+            args.add(status.name());
+        }
+        if (fromDate != null) {
+            // Undated events have no place in a date range
+            sql.append(" AND ").append(DATE_KEY).append(" >= ? AND e.date IS NOT NULL");
+            args.add(fromDate);
+        }
+        if (toDate != null) {
+            sql.append(" AND ").append(DATE_KEY).append(" <= ?");
+            args.add(toDate);
+        }
+        if (locationPattern != null) {
+            // Substring match, served by the trigram index idx_events_location_trgm
+            sql.append(" AND lower(e.location) LIKE ?");
+            args.add(locationPattern);
+        }
+        if (afterId != null) {
+            sql.append(" AND (").append(DATE_KEY).append(", ").append(TIME_KEY).append(", e.id) > (")
+                    .append(afterDate == null ? "'infinity'::date" : "?::date").append(", ")
+                    .append(afterTime == null ? "'24:00'::time" : "?::time").append(", ?)");
+            if (afterDate != null) args.add(afterDate);
+            if (afterTime != null) args.add(afterTime);
+            args.add(afterId);
+        }
+        sql.append(" ORDER BY ").append(DATE_KEY).append(", ").append(TIME_KEY).append(", e.id LIMIT ?");
+        args.add(limit);
+
+        return jdbcTemplate.queryForList(sql.toString(), Long.class, args.toArray());
+    }
+}
@@ -4,12 +4,23 @@ import com.nganyaexperience.backend.entity.Event;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
-public interface EventRepository extends JpaRepository<Event, Long> {
+public interface EventRepository extends JpaRepository<Event, Long>, EventPageRepository {
 
     // Fetch events WITH tickets in one query (fixes N+1 problem)
     @Override
     @EntityGraph(attributePaths = "tickets")
     List<Event> findAll();
+
+    // Same for a single event (no extra lazy load for tickets)
+    @Override
+    @EntityGraph(attributePaths = "tickets")
+    Optional<Event> findById(Long id);
+
+    // Tickets for one page of events (second step of keyset paging)
+    @EntityGraph(attributePaths = "tickets")
+    List<Event> findAllByIdIn(Collection<Long> ids);
 }
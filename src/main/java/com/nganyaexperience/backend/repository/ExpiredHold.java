@@ -0,0 +1,9 @@
+package com.nganyaexperience.backend.repository;
+
+/**
+ * A booking cancelled by the hold sweeper: which ticket type and how many seats to release.
+ */
+public interface ExpiredHold {
+    Long getTicketTypeId();
+    Integer getSeats();
+}
@@ -0,0 +1,56 @@
+package com.nganyaexperience.backend.repository;
+
+import com.nganyaexperience.backend.entity.IdempotencyRecord;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+public interface IdempotencyRecordRepository extends JpaRepository<IdempotencyRecord, String> {
+
+    // Claim a key. Returns 0 if another request already owns it (single statement, race-free).
+    @Transactional
+    @Modifying
+    @Query(value = """
+            INSERT INTO idempotency_keys (id, fingerprint, state, expires_at)
+            VALUES (:id, :fingerprint, 'IN_PROGRESS', :expiresAt)
+            ON CONFLICT (id) DO NOTHING
+            """, nativeQuery = true)
+    int claim(@Param("id") String id, @Param("fingerprint") String fingerprint, @Param("expiresAt") Instant expiresAt);
+
+    // Take over a key whose claim or stored response has expired. Returns 0 if someone else got it first.
+    @Transactional
+    @Modifying
+    @Query("""
+            update IdempotencyRecord r
+            set r.state = com.nganyaexperience.backend.entity.IdempotencyRecord.State.IN_PROGRESS,
+                r.fingerprint = :fingerprint, r.statusCode = null, r.responseBody = null, r.expiresAt = :expiresAt
+            where r.id = :id and r.expiresAt < :now
+            """)
+    int takeOver(@Param("id") String id, @Param("fingerprint") String fingerprint,
+                 @Param("now") Instant now, @Param("expiresAt") Instant expiresAt);
+
+    @Transactional
+    @Modifying
+    @Query("""
+            update IdempotencyRecord r
+            set r.state = com.nganyaexperience.backend.entity.IdempotencyRecord.State.COMPLETED,
+                r.statusCode = :statusCode, r.responseBody = :body, r.expiresAt = :expiresAt
+            where r.id = :id
+            """)
+    int complete(@Param("id") String id, @Param("statusCode") int statusCode, @Param("body") String body,
+                 @Param("expiresAt") Instant expiresAt);
+
+    @Transactional
+    @Modifying
+    @Query("delete from IdempotencyRecord r where r.id = :id")
+    int release(@Param("id") String id);
+
+    @Transactional
+    @Modifying
+    @Query("delete from IdempotencyRecord r where r.expiresAt < :now")
+    int deleteExpired(@Param("now") Instant now);
+}
@@ -0,0 +1,53 @@
+package com.nganyaexperience.backend.repository;
+
+import com.nganyaexperience.backend.entity.MpesaCallbackInbox;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface MpesaCallbackInboxRepository extends JpaRepository<MpesaCallbackInbox, Long> {
+
+    /**
+     * Claim one batch of due entries (and entries whose worker lease ran out) for this instance.
+     * SKIP LOCKED lets several drains run side by side without taking the same rows.
+     */
+    @Transactional
+    @Query(value = """
+            UPDATE mpesa_callback_inbox
+            SET status = 'PROCESSING', next_attempt_at = :leaseUntil
+            WHERE id IN (
+                SELECT id FROM mpesa_callback_inbox
+                WHERE status IN ('PENDING', 'PROCESSING') AND next_attempt_at <= :now
+                ORDER BY id
+                LIMIT :batchSize
+                FOR UPDATE SKIP LOCKED
+            )
+            RETURNING id
+            """, nativeQuery = true)
+    List<Long> claimBatch(@Param("now") Instant now, @Param("leaseUntil") Instant leaseUntil, @Param("batchSize") int batchSize);
+
+    @Transactional
+    @Modifying
+    @Query("""
+            update MpesaCallbackInbox i
+            set i.status = com.nganyaexperience.backend.entity.MpesaCallbackInbox.Status.PENDING,
+                i.attempts = i.attempts + 1, i.nextAttemptAt = :nextAttemptAt, i.lastError = :error
+            where i.id = :id
+            """)
+    int retryLater(@Param("id") Long id, @Param("nextAttemptAt") Instant nextAttemptAt, @Param("error") String error);
+
+    @Transactional
+    @Modifying
+    @Query("""
+            update MpesaCallbackInbox i
+            set i.status = com.nganyaexperience.backend.entity.MpesaCallbackInbox.Status.DEAD,
+                i.attempts = i.attempts + 1, i.processedAt = :now, i.lastError = :error
+            where i.id = :id
+            """)
+    int markDead(@Param("id") Long id, @Param("now") Instant now, @Param("error") String error);
+}
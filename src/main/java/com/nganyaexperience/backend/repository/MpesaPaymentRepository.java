@@ -1,11 +1,58 @@
 package com.nganyaexperience.backend.repository;
 
 import com.nganyaexperience.backend.entity.MpesaPayment;
+import org.springframework.data.domain.Limit;
+import jakarta.persistence.LockModeType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
+import java.util.List;
 import java.util.Optional;
 
 public interface MpesaPaymentRepository extends JpaRepository<MpesaPayment, Long> {
     Optional<MpesaPayment> findByCheckoutRequestId(String checkoutRequestId);
+    boolean existsByCheckoutRequestId(String checkoutRequestId);
     Optional<MpesaPayment> findByBooking_Id(Long bookingId);
+
+    // Row-locked reads for applying a callback / query answer: duplicates for one payment run one after the other
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select p from MpesaPayment p where p.checkoutRequestId = :checkoutRequestId")
+    Optional<MpesaPayment> findForUpdateByCheckoutRequestId(@Param("checkoutRequestId") String checkoutRequestId);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select p from MpesaPayment p where p.id = :id")
+    Optional<MpesaPayment> findForUpdateById(@Param("id") Long id);
+
+    // STK push whose outcome is unknown (no CheckoutRequestID recorded), matched by a later callback
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    Optional<MpesaPayment> findFirstByCheckoutRequestIdIsNullAndStatusAndPhoneAndAmountOrderByCreatedAtDesc(
+            MpesaPayment.Status status, String phone, Double amount);
+
+    // PENDING payments older than olderThan that are due for an STK Push Query (uses idx_mpesa_payments_status_created_at)
+    @Query("""
+            select p.id as id, p.checkoutRequestId as checkoutRequestId,
+                   e.paymentNumber as shortcode, p.queryAttempts as queryAttempts
+            from MpesaPayment p join p.booking b join b.event e
+            where p.status = com.nganyaexperience.backend.entity.MpesaPayment.Status.PENDING
+              and p.createdAt < :olderThan
+              and p.queryAttempts < :maxAttempts
+              and (p.nextQueryAt is null or p.nextQueryAt <= :now)
+            order by p.createdAt
+            """)
+    List<PendingPaymentQuery> findDueForQuery(
+            @Param("olderThan") Instant olderThan,
+            @Param("now") Instant now,
+            @Param("maxAttempts") int maxAttempts,
+            Limit limit
+    );
+
+    @Transactional
+    @Modifying
+    @Query("update MpesaPayment p set p.queryAttempts = p.queryAttempts + 1, p.nextQueryAt = :nextQueryAt where p.id = :id")
+    int scheduleNextQuery(@Param("id") Long id, @Param("nextQueryAt") Instant nextQueryAt);
 }
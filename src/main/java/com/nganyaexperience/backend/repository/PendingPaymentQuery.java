@@ -0,0 +1,12 @@
+package com.nganyaexperience.backend.repository;
+
+/**
+ * A PENDING payment the reconciler should ask Daraja about (STK Push Query).
+ */
+public interface PendingPaymentQuery {
+    Long getId();
+    String getCheckoutRequestId();
+    // Event payment number (Paybill shortcode / Till) the STK push was sent with
+    String getShortcode();
+    Integer getQueryAttempts();
+}
@@ -0,0 +1,101 @@
+package com.nganyaexperience.backend.repository;
+
+import com.nganyaexperience.backend.entity.StkPushQueueEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface StkPushQueueRepository extends JpaRepository<StkPushQueueEntry, Long> {
+
+    boolean existsByShortcodeAndStatus(String shortcode, StkPushQueueEntry.Status status);
+
+    // Pushes queued ahead of this one for the same shortcode
+    long countByShortcodeAndStatusAndIdLessThan(String shortcode, StkPushQueueEntry.Status status, Long id);
+
+    @Query("""
+            select distinct q.shortcode from StkPushQueueEntry q
+            where q.status = com.nganyaexperience.backend.entity.StkPushQueueEntry.Status.QUEUED
+              and q.nextAttemptAt <= :now
+            """)
+    List<String> findDueShortcodes(@Param("now") Instant now);
+
+    /**
+     * Claim up to limit due pushes of one shortcode, oldest first.
+     * SKIP LOCKED keeps several instances from sending the same row.
+     */
+    @Transactional
+    @Query(value = """
+            UPDATE stk_push_queue
+            SET status = 'SENDING', next_attempt_at = :leaseUntil
+            WHERE id IN (
+                SELECT id FROM stk_push_queue
+                WHERE shortcode = :shortcode AND status = 'QUEUED' AND next_attempt_at <= :now
+                ORDER BY id
+                LIMIT :limit
+                FOR UPDATE SKIP LOCKED
+            )
+            RETURNING id
+            """, nativeQuery = true)
+    List<Long> claim(@Param("shortcode") String shortcode, @Param("now") Instant now,
+                     @Param("leaseUntil") Instant leaseUntil, @Param("limit") int limit);
+
+    /**
+     * Pushes whose sender lease ran out (instance died mid-call). They are never sent again:
+     * Daraja may already have prompted the customer. Returns their ids.
+     */
+    @Transactional
+    @Query(value = """
+            UPDATE stk_push_queue
+            SET status = 'UNKNOWN', last_error = 'Sender lease expired, outcome unknown'
+            WHERE id IN (
+                SELECT id FROM stk_push_queue
+                WHERE status = 'SENDING' AND next_attempt_at <= :now
+                LIMIT :limit
+                FOR UPDATE SKIP LOCKED
+            )
+            RETURNING id
+            """, nativeQuery = true)
+    List<Long> expireLeases(@Param("now") Instant now, @Param("limit") int limit);
+
+    @Transactional
+    @Modifying
+    @Query("""
+            update StkPushQueueEntry q
+            set q.status = com.nganyaexperience.backend.entity.StkPushQueueEntry.Status.SENT,
+                q.attempts = q.attempts + 1, q.sentAt = :now, q.checkoutRequestId = :checkoutRequestId
+            where q.id = :id
+            """)
+    int markSent(@Param("id") Long id, @Param("now") Instant now, @Param("checkoutRequestId") String checkoutRequestId);
+
+    @Transactional
+    @Modifying
+    @Query("""
+            update StkPushQueueEntry q
+            set q.status = com.nganyaexperience.backend.entity.StkPushQueueEntry.Status.QUEUED,
+                q.attempts = q.attempts + 1, q.nextAttemptAt = :nextAttemptAt, q.lastError = :error
+            where q.id = :id
+            """)
+    int retryLater(@Param("id") Long id, @Param("nextAttemptAt") Instant nextAttemptAt, @Param("error") String error);
+
+    @Transactional
+    @Modifying
+    @Query("update StkPushQueueEntry q set q.status = :status, q.lastError = :error where q.id = :id")
+    int finish(@Param("id") Long id, @Param("status") StkPushQueueEntry.Status status, @Param("error") String error);
+
+    @Transactional
+    @Modifying
+    @Query("""
+            delete from StkPushQueueEntry q
+            where q.status in (com.nganyaexperience.backend.entity.StkPushQueueEntry.Status.SENT,
+                               com.nganyaexperience.backend.entity.StkPushQueueEntry.Status.FAILED,
+                               com.nganyaexperience.backend.entity.StkPushQueueEntry.Status.CANCELLED,
+                               com.nganyaexperience.backend.entity.StkPushQueueEntry.Status.UNKNOWN)
+              and q.enqueuedAt < :before
+            """)
+    int deleteFinishedBefore(@Param("before") Instant before);
+}
@@ -0,0 +1,9 @@
+package com.nganyaexperience.backend.repository;
+
+/**
+ * Number of seats of one ticket type currently held by PENDING bookings.
+ */
+public interface TicketTypeHoldCount {
+    Long getTicketTypeId();
+    long getTotal();
+}
@@ -3,5 +3,6 @@ package com.nganyaexperience.backend.repository;
 import com.nganyaexperience.backend.entity.TicketType;
 import org.springframework.data.jpa.repository.JpaRepository;
 
+// sold/held are owned by InventoryEngine (in memory, written behind in batches)
 public interface TicketTypeRepository extends JpaRepository<TicketType, Long> {
 }
@@ -0,0 +1,12 @@
+package com.nganyaexperience.backend.repository;
+
+import com.nganyaexperience.backend.entity.Booking;
+
+/**
+ * One row of the bookings aggregate: how many seats a ticket type has booked in a given payment status.
+ */
+public interface TicketTypeStatusCount {
+    Long getTicketTypeId();
+    Booking.PaymentStatus getPaymentStatus();
+    long getTotal();
+}
@@ -0,0 +1,188 @@
+package com.nganyaexperience.backend.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Virtual waiting room in front of POST /api/bookings.
+ * <p>
+ * Each client joins the queue of an event and gets a token with a position. Tokens are admitted
+ * in arrival order at app.admission.rate-per-second per event; only an admitted token can create a
+ * booking (once). Everyone else polls /api/bookings/queue/{token} instead of hammering the DB and Daraja.
+ */
+@Slf4j
+@Service
+public class AdmissionQueue {
+
+    public enum State {
+        WAITING,
+        ADMITTED,
+        USED,
+        EXPIRED
+    }
+
+    public record Status(String token, Long eventId, State state, long position, long etaSeconds) {
+    }
+
+    public static class QueueFullException extends RuntimeException {
+        public QueueFullException() {
+            super("Queue is full, try again shortly");
+        }
+    }
+
+    // One lane per event: arrival sequence + how far admission has advanced
+    private static final class Lane {
+        long issued;
+        long admitted;
+        double credit;
+        long lastAdvanceNanos = System.nanoTime();
+    }
+
+    private static final class Entry {
+        final String token;
+        final Long eventId;
+        final long seq;
+        volatile long lastSeenMillis = System.currentTimeMillis();
+        volatile long admittedAtMillis;
+        volatile boolean used;
+
+        Entry(String token, Long eventId, long seq) {
+            this.token = token;
+            this.eventId = eventId;
+            this.seq = seq;
+        }
+    }
+
+    private final boolean enabled;
+    private final double ratePerSecond;
+    private final long maxWaitingPerEvent;
+    private final long admittedTtlMillis;
+    private final long abandonAfterMillis;
+
+    private final Map<Long, Lane> lanes = new ConcurrentHashMap<>();
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public AdmissionQueue(
+            @Value("${app.admission.enabled:false}") boolean enabled,
+            @Value("${app.admission.rate-per-second:20}") double ratePerSecond,
+            @Value("${app.admission.max-waiting-per-event:20000}") long maxWaitingPerEvent,
+            @Value("${app.admission.admitted-ttl-seconds:300}") long admittedTtlSeconds,
+            @Value("${app.admission.abandon-after-seconds:120}") long abandonAfterSeconds
+    ) {
+        this.enabled = enabled;
+        this.ratePerSecond = ratePerSecond;
+        this.maxWaitingPerEvent = maxWaitingPerEvent;
+        this.admittedTtlMillis = admittedTtlSeconds * 1000;
+        this.abandonAfterMillis = abandonAfterSeconds * 1000;
+    }
+
+    // When disabled, POST /api/bookings does not require a token (queue endpoints still work)
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Status join(Long eventId) {
+        Lane lane = lanes.computeIfAbsent(eventId, id -> new Lane());
+        long seq;
+        synchronized (lane) {
+            advance(lane);
+            if (lane.issued - lane.admitted >= maxWaitingPerEvent) throw new QueueFullException();
+            seq = ++lane.issued;
+            advance(lane);
+        }
+        Entry e = new Entry(UUID.randomUUID().toString(), eventId, seq);
+        entries.put(e.token, e);
+        return status(e);
+    }
+
+    /**
+     * Current position of a token. Returns null for unknown (or already cleaned up) tokens.
+     */
+    public Status poll(String token) {
+        Entry e = entries.get(token);
+        if (e == null) return null;
+        e.lastSeenMillis = System.currentTimeMillis();
+        return status(e);
+    }
+
+    /**
+     * Use an admitted token for one booking of the given event.
+     * Returns the token status; only {@link State#ADMITTED} means the booking may proceed.
+     */
+    public Status consume(String token, Long eventId) {
+        Entry e = token == null ? null : entries.get(token);
+        if (e == null || !e.eventId.equals(eventId)) return null;
+
+        Status s = status(e);
+        if (s.state() != State.ADMITTED) return s;
+
+        synchronized (e) {
+            if (e.used) return new Status(e.token, e.eventId, State.USED, 0, 0);
+            e.used = true;
+        }
+        return s;
+    }
+
+    // Release a consumed token again (booking failed before anything was reserved, e.g. bad request)
+    public void giveBack(String token) {
+        Entry e = token == null ? null : entries.get(token);
+        if (e != null) e.used = false;
+    }
+
+    private Status status(Entry e) {
+        if (e.used) return new Status(e.token, e.eventId, State.USED, 0, 0);
+
+        Lane lane = lanes.get(e.eventId);
+        long admitted;
+        synchronized (lane) {
+            advance(lane);
+            admitted = lane.admitted;
+        }
+
+        long now = System.currentTimeMillis();
+        if (e.seq <= admitted) {
+            if (e.admittedAtMillis == 0) e.admittedAtMillis = now;
+            if (now - e.admittedAtMillis > admittedTtlMillis) {
+                return new Status(e.token, e.eventId, State.EXPIRED, 0, 0);
+            }
+            return new Status(e.token, e.eventId, State.ADMITTED, 0, 0);
+        }
+
+        long position = e.seq - admitted;
+        long eta = (long) Math.ceil(position / ratePerSecond);
+        return new Status(e.token, e.eventId, State.WAITING, position, eta);
+    }
+
+    // Lazy token bucket: admit up to rate * elapsed new arrivals; idle time banks at most one second of credit
+    private void advance(Lane lane) {
+        long now = System.nanoTime();
+        double credit = lane.credit + (now - lane.lastAdvanceNanos) / 1e9 * ratePerSecond;
+        lane.lastAdvanceNanos = now;
+
+        long admitNow = Math.min(lane.issued - lane.admitted, (long) credit);
+        lane.admitted += admitNow;
+        lane.credit = Math.min(credit - admitNow, Math.max(1.0, ratePerSecond));
+    }
+
+    // Drop used/expired/abandoned tokens so the maps stay bounded
+    @Scheduled(fixedDelayString = "${app.admission.cleanup-interval-ms:30000}")
+    public void cleanup() {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        for (Entry e : entries.values()) {
+            boolean expired = e.admittedAtMillis != 0 && now - e.admittedAtMillis > admittedTtlMillis;
+            boolean abandoned = e.admittedAtMillis == 0 && now - e.lastSeenMillis > abandonAfterMillis;
+            if (e.used || expired || abandoned) {
+                entries.remove(e.token);
+                removed++;
+            }
+        }
+        if (removed > 0) log.debug("Admission queue: removed {} tokens, {} left", removed, entries.size());
+    }
+}
@@ -3,14 +3,21 @@ package com.nganyaexperience.backend.service;
 import com.nganyaexperience.backend.entity.Booking;
 import com.nganyaexperience.backend.entity.Event;
 import com.nganyaexperience.backend.entity.TicketType;
+import com.nganyaexperience.backend.inventory.InventoryEngine;
 import com.nganyaexperience.backend.repository.BookingRepository;
 import com.nganyaexperience.backend.repository.EventRepository;
+import com.nganyaexperience.backend.repository.ExpiredHold;
 import com.nganyaexperience.backend.repository.TicketTypeRepository;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
 import java.time.Year;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 @Service
@@ -20,6 +27,15 @@ public class BookingService {
     private final BookingRepository bookingRepository;
     private final EventRepository eventRepository;
     private final TicketTypeRepository ticketTypeRepository;
+    private final EventCatalogCache catalogCache;
+    private final InventoryEngine inventory;
+
+    // How long a PENDING booking keeps its seat while the customer completes M-Pesa
+    @Value("${app.holds.ttl-seconds:180}")
+    private long holdTtlSeconds;
+
+    @Value("${app.bookings.max-quantity:20}")
+    private int maxQuantity;
 
     // Generate a readable ticket code like WRC-001 based on event title and seat sequence.
     // Called ONLY after payment is confirmed.
@@ -44,33 +60,44 @@ public class BookingService {
             String name,
             String phone,
             Long eventId,
-            Long ticketTypeId
+            Long ticketTypeId,
+            Integer quantity
     ) {
+        int seats = quantity == null ? 1 : quantity;
+        if (seats < 1 || seats > maxQuantity) {
+            throw new IllegalArgumentException("quantity must be between 1 and " + maxQuantity);
+        }
+
+        // 🚫 SOLD OUT CHECK: hold all N seats in memory (sold + held + N <= capacity) or fail here,
+        // before any DB read and before any STK push. Undone if this transaction rolls back.
+        if (!inventory.tryHold(ticketTypeId, seats)) {
+            throw new RuntimeException(seats == 1 ? "Ticket SOLD OUT" : "Not enough seats left for " + seats);
+        }
+
         Event event = eventRepository.findById(eventId)
                 .orElseThrow(() -> new RuntimeException("Event not found"));
 
         TicketType ticket = ticketTypeRepository.findById(ticketTypeId)
                 .orElseThrow(() -> new RuntimeException("Ticket not found"));
 
-        // 🚫 SOLD OUT CHECK (UNCHANGED)
-        if (ticket.getSold() >= ticket.getCapacity()) {
-            throw new RuntimeException("Ticket SOLD OUT");
-        }
-
-        // ✅ CREATE BOOKING AS PENDING (DO NOT REDUCE SEATS YET)
+        // ✅ CREATE BOOKING AS PENDING WITH A TIME-LIMITED HOLD (seat is sold only after payment)
         Booking booking = Booking.builder()
                 .customerName(name)
                 .phoneNumber(phone)
                 .event(event)
                 .ticketType(ticket)
+                .quantity(seats)
                 .paymentStatus(Booking.PaymentStatus.PENDING)
+                .holdExpiresAt(Instant.now().plusSeconds(holdTtlSeconds))
                 .build();
 
+        catalogCache.seatsChanged();
         return bookingRepository.save(booking);
     }
 
     /**
-     * Mark booking as PAID, increment sold seats, and issue final ticket code.
+     * Mark booking as PAID, increment sold seats, and issue final ticket code(s).
+     * A group booking gets N contiguous seat sequences: ticketCode..lastTicketCode.
      * Safe to call multiple times (idempotent).
      */
     @Transactional
@@ -82,21 +109,29 @@ public class BookingService {
             return booking;
         }
 
-        TicketType ticket = ticketTypeRepository.findById(booking.getTicketType().getId())
-                .orElseThrow(() -> new RuntimeException("Ticket not found"));
-
-        if (ticket.getSold() >= ticket.getCapacity()) {
-            throw new RuntimeException("Ticket SOLD OUT");
+        // Only the caller that moves the booking to PAID sells seats; a loser retries and then returns early above
+        if (bookingRepository.markPaid(bookingId) == 0) {
+            throw new RuntimeException("Booking " + bookingId + " is being confirmed concurrently");
         }
 
-        // Seat sequence is sold+1
-        int seatSeq = ticket.getSold() + 1;
-        ticket.setSold(seatSeq);
-        ticketTypeRepository.save(ticket);
+        // Seat sequence is the new sold count, taken atomically (safe under concurrent callbacks).
+        // If the booking still holds a seat, convert it; otherwise (hold expired) take a free one.
+        Long ticketTypeId = booking.getTicketType().getId();
+        boolean hadHold = bookingRepository.detachHold(bookingId) == 1;
+        booking.setHoldExpiresAt(null);
+
+        int seats = booking.seatCount();
+        int lastSeq = inventory.claim(ticketTypeId, seats, hadHold)
+                .orElseThrow(() -> new RuntimeException("Ticket SOLD OUT"));
+        int firstSeq = lastSeq - seats + 1;
 
+        String title = booking.getEvent().getTitle();
         booking.setPaymentStatus(Booking.PaymentStatus.PAID);
-        booking.setTicketCode(generateTicketCode(booking.getEvent().getTitle(), seatSeq));
+        booking.setTicketCode(generateTicketCode(title, firstSeq));
+        booking.setLastTicketCode(seats > 1 ? generateTicketCode(title, lastSeq) : null);
 
+        // Seats left changed: public catalog picks it up on its next (rate-limited) rebuild
+        catalogCache.seatsChanged();
         return bookingRepository.save(booking);
     }
 
@@ -111,12 +146,20 @@ public class BookingService {
 
         if (booking.getPaymentStatus() == Booking.PaymentStatus.PAID) return booking;
 
+        // Give the held seat back straight away; a retry takes a new hold
+        if (bookingRepository.detachHold(bookingId) == 1) {
+            inventory.releaseHold(booking.getTicketType().getId(), booking.seatCount());
+            catalogCache.seatsChanged();
+        }
+        booking.setHoldExpiresAt(null);
+
         booking.setPaymentStatus(Booking.PaymentStatus.FAILED);
         return bookingRepository.save(booking);
     }
 
     /**
-     * Ensure a booking is in PENDING state so user can retry payment.
+     * Ensure a booking is in PENDING state (with a live seat hold) so user can retry payment.
+     * Throws SOLD OUT if the booking lost its hold and no seat is left.
      */
     @Transactional
     public Booking ensurePending(Long bookingId) {
@@ -124,9 +167,37 @@ public class BookingService {
                 .orElseThrow(() -> new RuntimeException("Booking not found"));
 
         if (booking.getPaymentStatus() != Booking.PaymentStatus.PAID) {
+            Instant expiresAt = Instant.now().plusSeconds(holdTtlSeconds);
+
+            if (bookingRepository.renewHold(bookingId, expiresAt) == 0) {
+                if (!inventory.tryHold(booking.getTicketType().getId(), booking.seatCount())) {
+                    throw new RuntimeException("Ticket SOLD OUT");
+                }
+                bookingRepository.attachHold(bookingId, expiresAt);
+                catalogCache.seatsChanged();
+            }
+
+            booking.setHoldExpiresAt(expiresAt);
             booking.setPaymentStatus(Booking.PaymentStatus.PENDING);
             return bookingRepository.save(booking);
         }
         return booking;
     }
+
+    /**
+     * Cancel one batch of PENDING bookings whose seat hold expired and give the seats back.
+     * Returns how many bookings were cancelled (the sweeper keeps going while a full batch comes back).
+     */
+    @Transactional
+    public int releaseExpiredHolds(int batchSize) {
+        List<ExpiredHold> expired = bookingRepository.cancelExpiredHolds(Instant.now(), batchSize);
+        if (expired.isEmpty()) return 0;
+
+        Map<Long, Integer> releasedPerTicket = new HashMap<>();
+        for (ExpiredHold h : expired) releasedPerTicket.merge(h.getTicketTypeId(), h.getSeats(), Integer::sum);
+        releasedPerTicket.forEach(inventory::releaseHold);
+
+        catalogCache.seatsChanged();
+        return expired.size();
+    }
 }
@@ -0,0 +1,111 @@
+package com.nganyaexperience.backend.service;
+
+import com.nganyaexperience.backend.config.WorkerThreads;
+import com.nganyaexperience.backend.repository.MpesaCallbackInboxRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Drains mpesa_callback_inbox: claims due entries in batches and applies them on a small, bounded worker pool.
+ * A failed entry is retried with exponential backoff; after app.callbacks.max-attempts it is parked as DEAD.
+ */
+@Slf4j
+@Component
+public class CallbackInboxWorker {
+
+    private final MpesaCallbackInboxRepository inboxRepository;
+    private final PaymentCallbackService callbackService;
+    private final ExecutorService workers;
+
+    private final int batchSize;
+    private final int maxBatches;
+    private final int maxAttempts;
+    private final Duration lease;
+    private final Duration baseBackoff;
+    private final Duration maxBackoff;
+
+    public CallbackInboxWorker(
+            MpesaCallbackInboxRepository inboxRepository,
+            PaymentCallbackService callbackService,
+            @Value("${app.callbacks.workers:4}") int workerCount,
+            @Value("${app.callbacks.batch-size:50}") int batchSize,
+            @Value("${app.callbacks.max-batches:20}") int maxBatches,
+            @Value("${app.callbacks.max-attempts:8}") int maxAttempts,
+            @Value("${app.callbacks.lease-seconds:120}") long leaseSeconds,
+            @Value("${app.callbacks.base-backoff-seconds:5}") long baseBackoffSeconds,
+            @Value("${app.callbacks.max-backoff-seconds:900}") long maxBackoffSeconds,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads
+    ) {
+        this.inboxRepository = inboxRepository;
+        this.callbackService = callbackService;
+        this.batchSize = batchSize;
+        this.maxBatches = maxBatches;
+        this.maxAttempts = maxAttempts;
+        this.lease = Duration.ofSeconds(leaseSeconds);
+        this.baseBackoff = Duration.ofSeconds(baseBackoffSeconds);
+        this.maxBackoff = Duration.ofSeconds(maxBackoffSeconds);
+
+        this.workers = Executors.newFixedThreadPool(workerCount, WorkerThreads.factory("callback-inbox-", virtualThreads));
+    }
+
+    @Scheduled(fixedDelayString = "${app.callbacks.drain-interval-ms:500}")
+    public void drain() throws InterruptedException {
+        for (int i = 0; i < maxBatches; i++) {
+            Instant now = Instant.now();
+            List<Long> ids = inboxRepository.claimBatch(now, now.plus(lease), batchSize);
+            if (ids.isEmpty()) return;
+
+            List<Callable<Void>> tasks = new ArrayList<>(ids.size());
+            for (Long id : ids) {
+                tasks.add(() -> {
+                    process(id);
+                    return null;
+                });
+            }
+            // Wait for the whole batch so at most workers x batch entries are in flight
+            workers.invokeAll(tasks);
+
+            if (ids.size() < batchSize) return;
+        }
+    }
+
+    private void process(Long id) {
+        try {
+            callbackService.processInboxEntry(id);
+        } catch (Exception e) {
+            String error = e.getClass().getSimpleName() + ": " + e.getMessage();
+            if (error.length() > 1000) error = error.substring(0, 1000);
+
+            // attempts in the row is the count before this one
+            int attempt = inboxRepository.findById(id).map(x -> x.getAttempts() + 1).orElse(maxAttempts);
+            if (attempt >= maxAttempts) {
+                inboxRepository.markDead(id, Instant.now(), error);
+                log.error("Callback inbox entry {} is DEAD after {} attempts: {}", id, attempt, error);
+            } else {
+                inboxRepository.retryLater(id, Instant.now().plus(backoff(attempt)), error);
+                log.warn("Callback inbox entry {} failed (attempt {}), retrying: {}", id, attempt, error);
+            }
+        }
+    }
+
+    private Duration backoff(int attempt) {
+        Duration d = baseBackoff.multipliedBy(1L << Math.min(attempt - 1, 20));
+        return d.compareTo(maxBackoff) > 0 ? maxBackoff : d;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+    }
+}
@@ -0,0 +1,91 @@
+package com.nganyaexperience.backend.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version of everything the public catalog endpoints return (events, ticket types, nganyas, seats left).
+ * Every admin write bumps it; public GETs turn it into a strong ETag.
+ * Seat holds and sales only mark seat counts stale: those bumps are coalesced to at most one per
+ * app.catalog.seat-refresh-ms, so a busy sale does not rebuild the catalog on every booking.
+ */
+@Component
+public class CatalogVersion {
+
+    // Counter restarts at 0 on every boot, so ETags also carry a per-boot tag
+    private final String bootTag = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicLong lastBumpMillis = new AtomicLong();
+    private final long seatRefreshMillis;
+
+    private volatile boolean seatsStale;
+
+    public CatalogVersion(@Value("${app.catalog.seat-refresh-ms:1000}") long seatRefreshMillis) {
+        this.seatRefreshMillis = seatRefreshMillis;
+    }
+
+    public long current() {
+        if (seatsStale) refreshSeats();
+        return version.get();
+    }
+
+    /**
+     * Advance the version. Inside a transaction this happens after commit,
+     * so clients never get a new ETag for data that is not visible yet.
+     */
+    public void bump() {
+        afterCommit(this::increment);
+    }
+
+    /**
+     * Seats left changed. The version moves on the next read at least seat-refresh-ms after the last bump.
+     */
+    public void seatsChanged() {
+        afterCommit(() -> seatsStale = true);
+    }
+
+    public String etag() {
+        return etag("");
+    }
+
+    // variant separates representations of the same URL (e.g. "-gz" for the gzipped body)
+    public String etag(String variant) {
+        return etag(current(), variant);
+    }
+
+    // For a version read earlier (before the body it tags was loaded)
+    public String etag(long version, String variant) {
+        return "\"" + bootTag + "-" + version + variant + "\"";
+    }
+
+    private void refreshSeats() {
+        long now = System.currentTimeMillis();
+        long last = lastBumpMillis.get();
+        if (now - last < seatRefreshMillis || !lastBumpMillis.compareAndSet(last, now)) return;
+        // Cleared before the bump: a seat change committed after this point sets it again
+        seatsStale = false;
+        version.incrementAndGet();
+    }
+
+    private void increment() {
+        lastBumpMillis.set(System.currentTimeMillis());
+        version.incrementAndGet();
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
@@ -1,18 +1,34 @@
 package com.nganyaexperience.backend.service;
 
 import com.cloudinary.Cloudinary;
-import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.util.HashMap;
 import java.util.Map;
 
 @Service
-@RequiredArgsConstructor
 public class CloudinaryService {
 
     private final Cloudinary cloudinary;
 
+    // Passed per call (Cloudinary's own Apache client); milliseconds
+    private final Map<String, Object> timeouts;
+
+    public CloudinaryService(
+            Cloudinary cloudinary,
+            @Value("${app.cloudinary.connect-timeout-ms:5000}") int connectTimeoutMs,
+            @Value("${app.cloudinary.timeout-ms:60000}") int timeoutMs
+    ) {
+        this.cloudinary = cloudinary;
+        this.timeouts = Map.of(
+                "connect_timeout", connectTimeoutMs,
+                "connection_request_timeout", connectTimeoutMs,
+                "timeout", timeoutMs
+        );
+    }
+
     // ---------- EVENT POSTER ----------
     public String uploadEventPoster(MultipartFile file) {
         return upload(file, "events");
@@ -27,10 +43,10 @@ public class CloudinaryService {
         try {
             Map<?, ?> result = cloudinary.uploader().upload(
                     file.getBytes(),
-                    Map.of(
+                    withTimeouts(Map.of(
                             "folder", folder,
                             "resource_type", "image"
-                    )
+                    ))
             );
             return result.get("secure_url").toString();
         } catch (Exception e) {
@@ -45,7 +61,13 @@ public class CloudinaryService {
                     .substring(imageUrl.indexOf("/upload/") + 8)
                     .replaceAll("^v\\d+/", "")
                     .replaceAll("\\.[a-zA-Z]+$", "");
-            cloudinary.uploader().destroy(publicId, Map.of());
+            cloudinary.uploader().destroy(publicId, timeouts);
         } catch (Exception ignored) {}
     }
+
+    private Map<String, Object> withTimeouts(Map<String, Object> options) {
+        Map<String, Object> all = new HashMap<>(timeouts);
+        all.putAll(options);
+        return all;
+    }
 }
@@ -0,0 +1,171 @@
+package com.nganyaexperience.backend.service;
+
+import com.nganyaexperience.backend.entity.Event;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-memory copy of the public event catalog (events + tickets + seat counts).
+ * - Reads are served from the snapshot without touching the DB.
+ * - Admin writes call {@link #invalidate()} (bumps {@link CatalogVersion}); the next read rebuilds it once.
+ * - Seat holds and sales call {@link #seatsChanged()}: rebuilt at most once per app.catalog.seat-refresh-ms.
+ * - Bounded: if the catalog grows past app.catalog.max-events it is not cached (reads go to the DB).
+ * - The listing is also kept as ready-to-send JSON bytes (plain + gzip), encoded once per rebuild.
+ */
+@Slf4j
+@Component
+public class EventCatalogCache {
+
+    private record Snapshot(long version, long loadedAtMillis, List<Event> events, Map<Long, Event> byId,
+                            EncodedListing listing) {
+    }
+
+    /**
+     * Pre-serialized /api/events body. gzip is null when the listing was not cached.
+     */
+    public record EncodedListing(byte[] json, byte[] gzip) {
+    }
+
+    private final CatalogVersion catalogVersion;
+    private final JsonMapper jsonMapper;
+    private final int maxEvents;
+    private final long ttlMillis;
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    private final ReentrantLock loadLock = new ReentrantLock();
+
+    // Version at which the catalog exceeded maxEvents; reads bypass the cache until the next write
+    private volatile long oversizedAtVersion = -1;
+
+    public EventCatalogCache(
+            CatalogVersion catalogVersion,
+            JsonMapper jsonMapper,
+            @Value("${app.catalog.max-events:500}") int maxEvents,
+            @Value("${app.catalog.ttl-seconds:300}") long ttlSeconds
+    ) {
+        this.catalogVersion = catalogVersion;
+        this.jsonMapper = jsonMapper;
+        this.maxEvents = maxEvents;
+        this.ttlMillis = ttlSeconds * 1000;
+    }
+
+    /**
+     * All events, from the snapshot if it is current, otherwise loaded once (single-flight) and cached.
+     */
+    public List<Event> getAll(Supplier<List<Event>> loader) {
+        Snapshot s = current();
+        if (s != null) return s.events();
+        if (oversized()) return loader.get();
+        return load(loader).events();
+    }
+
+    /**
+     * The listing as JSON bytes, encoded with the same mapper Spring MVC uses.
+     */
+    public EncodedListing getListing(Supplier<List<Event>> loader) {
+        Snapshot s = current();
+        if (s != null) return s.listing();
+        if (oversized()) return new EncodedListing(jsonMapper.writeValueAsBytes(loader.get()), null);
+        return load(loader).listing();
+    }
+
+    /**
+     * One event from the snapshot. Returns null if the catalog is not cached (caller falls back to the DB).
+     */
+    public Event getById(Long id, Supplier<List<Event>> loader) {
+        if (oversized()) return null;
+        Snapshot s = current();
+        if (s == null) s = load(loader);
+        if (s.byId() == null) return null;
+        Event event = s.byId().get(id);
+        if (event == null) throw new RuntimeException("Event not found");
+        return event;
+    }
+
+    /**
+     * Mark the snapshot stale. Inside a transaction the version moves after commit, so a
+     * concurrent reader can never re-cache data that is about to change.
+     */
+    public void invalidate() {
+        catalogVersion.bump();
+    }
+
+    /**
+     * Seat counts changed (hold, sale, release). Coalesced: see {@link CatalogVersion#seatsChanged()}.
+     */
+    public void seatsChanged() {
+        catalogVersion.seatsChanged();
+    }
+
+    private boolean oversized() {
+        return oversizedAtVersion == catalogVersion.current();
+    }
+
+    private Snapshot current() {
+        Snapshot s = snapshot.get();
+        if (s == null || s.version() != catalogVersion.current()) return null;
+        if (System.currentTimeMillis() - s.loadedAtMillis() > ttlMillis) {
+            // Out-of-band DB edits: also move the version so ETags don't pin the old body
+            if (snapshot.compareAndSet(s, null)) catalogVersion.bump();
+            return null;
+        }
+        return s;
+    }
+
+    // One rebuild at a time; a lock rather than synchronized so a virtual thread waiting on the DB is not pinned
+    private Snapshot load(Supplier<List<Event>> loader) {
+        loadLock.lock();
+        try {
+            return loadLocked(loader);
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    private Snapshot loadLocked(Supplier<List<Event>> loader) {
+        Snapshot s = current();
+        if (s != null) return s;
+
+        long v = catalogVersion.current();
+        List<Event> events = List.copyOf(loader.get());
+
+        if (events.size() > maxEvents) {
+            log.warn("Event catalog has {} events (max {}), serving from DB without caching", events.size(), maxEvents);
+            oversizedAtVersion = v;
+            return new Snapshot(v, System.currentTimeMillis(), events, null,
+                    new EncodedListing(jsonMapper.writeValueAsBytes(events), null));
+        }
+
+        Map<Long, Event> byId = new HashMap<>();
+        for (Event e : events) byId.put(e.getId(), e);
+
+        byte[] json = jsonMapper.writeValueAsBytes(events);
+        s = new Snapshot(v, System.currentTimeMillis(), events, Map.copyOf(byId), new EncodedListing(json, gzip(json)));
+        // If a write committed while we were loading, current() ignores this snapshot
+        snapshot.set(s);
+        return s;
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -1,52 +1,138 @@
 package com.nganyaexperience.backend.service;
 
+import com.nganyaexperience.backend.dto.EventPage;
 import com.nganyaexperience.backend.entity.Event;
 import com.nganyaexperience.backend.entity.TicketType;
-import com.nganyaexperience.backend.repository.BookingRepository;
+import com.nganyaexperience.backend.inventory.InventoryEngine;
 import com.nganyaexperience.backend.repository.EventRepository;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Base64;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class EventService {
 
     private final EventRepository eventRepository;
-    private final BookingRepository bookingRepository;
+    private final InventoryEngine inventory;
+    private final EventCatalogCache catalogCache;
 
     public Event createEvent(Event event) {
         if (event.getTickets() != null) {
             event.getTickets().forEach(ticket -> ticket.setEvent(event));
         }
-        return eventRepository.save(event);
+        Event saved = eventRepository.save(event);
+        if (saved.getTickets() != null) saved.getTickets().forEach(inventory::track);
+        catalogCache.invalidate();
+        return saved;
     }
 
+    // ✅ Served from the in-memory catalog; rebuilt from the DB only after a write
     public List<Event> getAllEvents() {
-        List<Event> events = eventRepository.findAll();
-
-        // ✅ Update 'sold' for each ticket based on bookings
-        for (Event event : events) {
-            for (TicketType ticket : event.getTickets()) {
-                long booked = bookingRepository.countByTicketTypeId(ticket.getId());
-                ticket.setSold((int) booked);  // Update sold
-            }
-        }
+        return catalogCache.getAll(this::loadCatalog);
+    }
 
-        return events;
+    // ✅ Same listing, already serialized (no Jackson work per request)
+    public EventCatalogCache.EncodedListing getAllEventsEncoded() {
+        return catalogCache.getListing(this::loadCatalog);
     }
 
     public Event getEventById(Long id) {
+        Event cached = catalogCache.getById(id, this::loadCatalog);
+        if (cached != null) return cached;
+
         Event event = eventRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("Event not found"));
+        applyAvailability(List.of(event));
+        return event;
+    }
+
+    /**
+     * One keyset page ordered by (date, time, id). Cost stays flat no matter how many past events exist:
+     * one indexed page query and one ticket fetch for that page (seat counts come from memory).
+     */
+    public EventPage getEventsPage(
+            Event.Status status,
+            LocalDate fromDate,
+            LocalDate toDate,
+            String location,
+            String cursor,
+            int limit
+    ) {
+        String locationPattern = (location == null || location.isBlank())
+                ? null
+                : "%" + location.trim().toLowerCase(Locale.ROOT) + "%";
+
+        Event after = decodeCursor(cursor);
+
+        // Fetch one extra id to know whether there is a next page
+        List<Long> ids = eventRepository.findPageIds(
+                status, fromDate, toDate, locationPattern,
+                after == null ? null : after.getDate(),
+                after == null ? null : after.getTime(),
+                after == null ? null : after.getId(),
+                limit + 1
+        );
+
+        boolean hasMore = ids.size() > limit;
+        if (hasMore) ids = ids.subList(0, limit);
+        if (ids.isEmpty()) return new EventPage(List.of(), null);
 
-        // ✅ Update 'sold' for each ticket
-        for (TicketType ticket : event.getTickets()) {
-            long booked = bookingRepository.countByTicketTypeId(ticket.getId());
-            ticket.setSold((int) booked);  // Update sold
+        // Load the page with tickets (keeps LIMIT in SQL, no collection fetch + paging)
+        Map<Long, Event> withTickets = eventRepository.findAllByIdIn(ids)
+                .stream()
+                .collect(Collectors.toMap(Event::getId, Function.identity()));
+        List<Event> items = ids.stream().map(withTickets::get).toList();
+        applyAvailability(items);
+
+        return new EventPage(items, hasMore ? encodeCursor(items.get(items.size() - 1)) : null);
+    }
+
+    // Cursor = base64url("date|time|id") of the last row; date / time are empty when null (they sort last)
+    private static String encodeCursor(Event last) {
+        String raw = (last.getDate() == null ? "" : last.getDate()) + "|"
+                + (last.getTime() == null ? "" : last.getTime()) + "|" + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Event decodeCursor(String cursor) {
+        if (cursor == null || cursor.isBlank()) return null;
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", -1);
+            return Event.builder()
+                    .date(parts[0].isEmpty() ? null : LocalDate.parse(parts[0]))
+                    .time(parts[1].isEmpty() ? null : LocalTime.parse(parts[1]))
+                    .id(Long.parseLong(parts[2]))
+                    .build();
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor");
         }
+    }
 
-        return event;
+    private List<Event> loadCatalog() {
+        List<Event> events = eventRepository.findAll();
+        applyAvailability(events);
+        return events;
+    }
+
+    // ✅ Seat counts come from the in-memory inventory (no DB query)
+    private void applyAvailability(List<Event> events) {
+        for (Event event : events) {
+            if (event.getTickets() == null) continue;
+            for (TicketType ticket : event.getTickets()) {
+                ticket.setSold(inventory.sold(ticket.getId()));
+                ticket.setHeld(inventory.held(ticket.getId()));
+            }
+        }
     }
 }
@@ -0,0 +1,213 @@
+package com.nganyaexperience.backend.service;
+
+import com.nganyaexperience.backend.entity.IdempotencyRecord;
+import com.nganyaexperience.backend.repository.IdempotencyRecordRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Idempotency-Key support for POST endpoints that create things or cost money (bookings, STK push).
+ * <p>
+ * The first request with a key claims it in idempotency_keys, runs, and stores its response.
+ * Retries with the same key get that response back (header Idempotent-Replayed: true) without running again;
+ * a retry that arrives while the first one is still running gets 409.
+ * The in-progress claim is a short lease: if its owner dies, a retry takes the key over once the lease runs out.
+ * Only 2xx and final 4xx responses are stored; anything the client may fix by retrying releases the key.
+ * Completed responses are also kept in a small in-memory LRU so hot retries skip the DB.
+ */
+@Slf4j
+@Service
+public class IdempotencyService {
+
+    public static final String HEADER = "Idempotency-Key";
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private static final int MAX_KEY_LENGTH = 128;
+
+    // Not final: retrying the same request may succeed (auth, in-progress conflicts, rate limits)
+    private static final Set<Integer> RETRYABLE_4XX = Set.of(401, 403, 408, 409, 425, 429);
+
+    private record Stored(String fingerprint, int statusCode, byte[] body, Instant expiresAt) {
+    }
+
+    private final IdempotencyRecordRepository repository;
+    private final JsonMapper jsonMapper;
+    private final Duration ttl;
+    private final Duration lease;
+    private final Map<String, Stored> recent;
+
+    public IdempotencyService(
+            IdempotencyRecordRepository repository,
+            JsonMapper jsonMapper,
+            @Value("${app.idempotency.ttl-hours:24}") long ttlHours,
+            @Value("${app.idempotency.in-progress-lease-seconds:60}") long leaseSeconds,
+            @Value("${app.idempotency.cache-size:10000}") int cacheSize
+    ) {
+        this.repository = repository;
+        this.jsonMapper = jsonMapper;
+        this.ttl = Duration.ofHours(ttlHours);
+        this.lease = Duration.ofSeconds(leaseSeconds);
+        this.recent = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Stored> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Run action at most once per (scope, key). Without a key the action simply runs.
+     *
+     * @param fingerprint what the request asks for; the same key with a different fingerprint is rejected (422)
+     */
+    public ResponseEntity<?> execute(String scope, String key, String fingerprint, Supplier<ResponseEntity<?>> action) {
+        if (key == null || key.isBlank()) return action.get();
+
+        String id = scope + ":" + key.trim();
+        ResponseEntity<?> early = begin(id, key, fingerprint);
+        if (early != null) return early;
+
+        ResponseEntity<?> response;
+        try {
+            response = action.get();
+        } catch (RuntimeException e) {
+            // Nothing to replay: free the key so the client can retry
+            repository.release(id);
+            throw e;
+        }
+        finish(id, fingerprint, response);
+        return response;
+    }
+
+    /**
+     * Same as {@link #execute} for actions that complete later (async controllers).
+     */
+    public CompletableFuture<ResponseEntity<?>> executeAsync(String scope, String key, String fingerprint,
+                                                             Supplier<CompletableFuture<ResponseEntity<?>>> action) {
+        if (key == null || key.isBlank()) return action.get();
+
+        String id = scope + ":" + key.trim();
+        ResponseEntity<?> early = begin(id, key, fingerprint);
+        if (early != null) return CompletableFuture.completedFuture(early);
+
+        CompletableFuture<ResponseEntity<?>> future;
+        try {
+            future = action.get();
+        } catch (RuntimeException e) {
+            repository.release(id);
+            throw e;
+        }
+        return future.whenComplete((response, error) -> {
+            if (error != null) repository.release(id);
+            else finish(id, fingerprint, response);
+        });
+    }
+
+    /**
+     * Claim the key. Returns null if this request owns it now, otherwise the response to send
+     * (replay, 409 in progress, 422 reused key, 400 bad key).
+     */
+    private ResponseEntity<?> begin(String id, String key, String fingerprint) {
+        if (key.length() > MAX_KEY_LENGTH) {
+            return ResponseEntity.badRequest().body(Map.of("error", HEADER + " must be at most " + MAX_KEY_LENGTH + " characters"));
+        }
+
+        Instant now = Instant.now();
+
+        Stored stored = cached(id, now);
+        if (stored == null) stored = loadCompleted(id, now);
+        if (stored != null) return replay(stored, fingerprint);
+
+        if (repository.claim(id, fingerprint, now.plus(lease)) == 0) {
+            // Someone owns the key: still running, finished a moment ago, or its lease / response expired
+            if (repository.takeOver(id, fingerprint, now, now.plus(lease)) > 0) return null;
+
+            IdempotencyRecord existing = repository.findById(id).orElse(null);
+            if (existing == null) return begin(id, key, fingerprint);
+            Stored done = toStored(existing);
+            if (done != null) return replay(done, fingerprint);
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", "A request with this " + HEADER + " is still in progress"));
+        }
+        return null;
+    }
+
+    // Store a final outcome; anything else releases the key so the client can retry
+    private void finish(String id, String fingerprint, ResponseEntity<?> response) {
+        if (!isFinal(response.getStatusCode().value())) {
+            repository.release(id);
+            return;
+        }
+
+        Instant expiresAt = Instant.now().plus(ttl);
+        byte[] body = response.getBody() == null ? new byte[0] : jsonMapper.writeValueAsBytes(response.getBody());
+        repository.complete(id, response.getStatusCode().value(), new String(body, StandardCharsets.UTF_8), expiresAt);
+        synchronized (recent) {
+            recent.put(id, new Stored(fingerprint, response.getStatusCode().value(), body, expiresAt));
+        }
+    }
+
+    static boolean isFinal(int status) {
+        if (status >= 200 && status < 300) return true;
+        return status >= 400 && status < 500 && !RETRYABLE_4XX.contains(status);
+    }
+
+    // ✅ Drop expired keys (the in-memory LRU ages out on its own)
+    @Scheduled(fixedDelayString = "${app.idempotency.cleanup-interval-ms:3600000}")
+    public void cleanup() {
+        int removed = repository.deleteExpired(Instant.now());
+        if (removed > 0) log.info("Removed {} expired idempotency keys", removed);
+    }
+
+    private Stored cached(String id, Instant now) {
+        synchronized (recent) {
+            Stored s = recent.get(id);
+            if (s != null && s.expiresAt().isBefore(now)) {
+                recent.remove(id);
+                return null;
+            }
+            return s;
+        }
+    }
+
+    private Stored loadCompleted(String id, Instant now) {
+        Stored s = toStored(repository.findById(id).orElse(null));
+        if (s == null || s.expiresAt().isBefore(now)) return null;
+        synchronized (recent) {
+            recent.put(id, s);
+        }
+        return s;
+    }
+
+    private static Stored toStored(IdempotencyRecord r) {
+        if (r == null || r.getState() != IdempotencyRecord.State.COMPLETED) return null;
+        byte[] body = r.getResponseBody() == null ? new byte[0] : r.getResponseBody().getBytes(StandardCharsets.UTF_8);
+        return new Stored(r.getFingerprint(), r.getStatusCode(), body, r.getExpiresAt());
+    }
+
+    private static ResponseEntity<?> replay(Stored s, String fingerprint) {
+        if (fingerprint != null && s.fingerprint() != null && !fingerprint.equals(s.fingerprint())) {
+            return ResponseEntity.unprocessableContent()
+                    .body(Map.of("error", HEADER + " was already used for a different request"));
+        }
+        return ResponseEntity.status(s.statusCode())
+                .contentType(MediaType.APPLICATION_JSON)
+                .header(REPLAYED_HEADER, "true")
+                .body(s.body());
+    }
+}
@@ -0,0 +1,125 @@
+package com.nganyaexperience.backend.service;
+
+import com.nganyaexperience.backend.entity.Booking;
+import com.nganyaexperience.backend.entity.MpesaCallbackInbox;
+import com.nganyaexperience.backend.entity.MpesaPayment;
+import com.nganyaexperience.backend.payments.StkCallback;
+import com.nganyaexperience.backend.payments.StkCallbackParser;
+import com.nganyaexperience.backend.repository.MpesaCallbackInboxRepository;
+import com.nganyaexperience.backend.repository.MpesaPaymentRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Applies a Daraja STK callback (or an STK Push Query answer) to its payment and booking.
+ * Safe to run more than once for the same callback (Safaricom redelivers, the inbox retries).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class PaymentCallbackService {
+
+    private final MpesaPaymentRepository paymentRepository;
+    private final MpesaCallbackInboxRepository inboxRepository;
+    private final BookingService bookingService;
+    private final PaymentStatusNotifier statusNotifier;
+
+    /**
+     * Process one inbox entry. The entry is marked DONE in the same transaction as the
+     * payment/booking changes, so it is either fully applied or retried.
+     */
+    @Transactional
+    public void processInboxEntry(Long inboxId) throws Exception {
+        MpesaCallbackInbox entry = inboxRepository.findById(inboxId)
+                .orElseThrow(() -> new RuntimeException("Callback inbox entry not found"));
+        if (entry.getStatus() == MpesaCallbackInbox.Status.DONE) return;
+
+        apply(entry.getPayload());
+
+        entry.setStatus(MpesaCallbackInbox.Status.DONE);
+        entry.setAttempts(entry.getAttempts() + 1);
+        entry.setProcessedAt(Instant.now());
+        entry.setLastError(null);
+    }
+
+    private void apply(byte[] rawPayload) throws Exception {
+        // Safaricom sends: { Body: { stkCallback: { MerchantRequestID, CheckoutRequestID, ResultCode, ResultDesc, CallbackMetadata }} }
+        StkCallback cb = StkCallbackParser.parse(rawPayload);
+        if (cb == null || cb.checkoutRequestId() == null) return;
+
+        // Row lock: a redelivered callback or reconciler answer for this payment waits, then sees the result
+        MpesaPayment payment = paymentRepository.findForUpdateByCheckoutRequestId(cb.checkoutRequestId()).orElse(null);
+        if (payment == null) payment = matchUnknownPush(cb);
+        if (payment == null) {
+            // Unknown checkout id (e.g. replaced by a newer STK push) - nothing to do
+            log.warn("Callback for unknown CheckoutRequestID {}", cb.checkoutRequestId());
+            return;
+        }
+
+        // Readable copy for support; the inbox keeps the exact bytes
+        if (payment.getStatus() != MpesaPayment.Status.PAID) {
+            payment.setRawCallback(new String(rawPayload, StandardCharsets.UTF_8));
+        }
+
+        StkCallback.CallbackMetadata meta = cb.metadata();
+        if (cb.isSuccess() && meta != null && meta.amount() != null && payment.getAmount() != null
+                && meta.amount() < payment.getAmount()) {
+            log.warn("Payment {} paid {} but {} was requested", payment.getId(), meta.amount(), payment.getAmount());
+        }
+        applyResult(payment, cb.isSuccess(), meta == null ? null : meta.mpesaReceiptNumber());
+    }
+
+    // A queued push that timed out never got its CheckoutRequestID; a successful callback still carries phone + amount
+    private MpesaPayment matchUnknownPush(StkCallback cb) {
+        StkCallback.CallbackMetadata meta = cb.metadata();
+        if (!cb.isSuccess() || meta == null || meta.phoneNumber() == null || meta.amount() == null) return null;
+
+        MpesaPayment payment = paymentRepository
+                .findFirstByCheckoutRequestIdIsNullAndStatusAndPhoneAndAmountOrderByCreatedAtDesc(
+                        MpesaPayment.Status.PENDING, meta.phoneNumber(), meta.amount())
+                .orElse(null);
+        if (payment != null) {
+            log.info("Callback {} matched payment {} whose STK push outcome was unknown", cb.checkoutRequestId(), payment.getId());
+            payment.setCheckoutRequestId(cb.checkoutRequestId());
+            payment.setMerchantRequestId(cb.merchantRequestId());
+        }
+        return payment;
+    }
+
+    /**
+     * Apply an STK Push Query answer (reconciler). Same transitions as a callback.
+     */
+    @Transactional
+    public void applyQueryResult(Long paymentId, boolean success) {
+        MpesaPayment payment = paymentRepository.findForUpdateById(paymentId)
+                .orElseThrow(() -> new RuntimeException("Payment not found"));
+        applyResult(payment, success, null);
+    }
+
+    private void applyResult(MpesaPayment payment, boolean success, String receipt) {
+        // Already settled: a redelivered callback / late query changes nothing
+        if (payment.getStatus() == MpesaPayment.Status.PAID) return;
+
+        if (success) {
+            if (receipt != null) payment.setMpesaReceipt(receipt);
+            payment.setStatus(MpesaPayment.Status.PAID);
+            paymentRepository.save(payment);
+
+            // Confirm booking, issue ticket, reduce seat
+            Booking booking = bookingService.confirmPaid(payment.getBooking().getId());
+            statusNotifier.publishAfterCommit(payment, booking);
+        } else if (payment.getStatus() == MpesaPayment.Status.PENDING) {
+            payment.setStatus(MpesaPayment.Status.FAILED);
+            paymentRepository.save(payment);
+
+            // Mark booking failed (user can retry)
+            Booking booking = bookingService.markFailed(payment.getBooking().getId());
+            statusNotifier.publishAfterCommit(payment, booking);
+        }
+    }
+}
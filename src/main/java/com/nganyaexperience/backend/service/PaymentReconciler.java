@@ -0,0 +1,140 @@
+package com.nganyaexperience.backend.service;
+
+import com.nganyaexperience.backend.config.WorkerThreads;
+import com.nganyaexperience.backend.payments.DarajaUnavailableException;
+import com.nganyaexperience.backend.repository.MpesaPaymentRepository;
+import com.nganyaexperience.backend.repository.PendingPaymentQuery;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Settles payments whose Daraja callback never arrived.
+ * <p>
+ * PENDING payments older than app.reconcile.min-age-seconds are checked with STK Push Query, a few at a time.
+ * A definite answer is applied exactly like a callback; "still processing" or an error schedules the
+ * next query with exponential backoff, up to app.reconcile.max-attempts. A payment still unresolved
+ * after the last attempt is marked FAILED (its seat hold is released); a late success callback still
+ * turns it PAID.
+ */
+@Slf4j
+@Component
+public class PaymentReconciler {
+
+    // Daraja ResultCode while the customer has not finished the prompt yet
+    private static final String STILL_PROCESSING = "4999";
+
+    private final MpesaPaymentRepository paymentRepository;
+    private final DarajaService darajaService;
+    private final PaymentCallbackService callbackService;
+    private final ExecutorService workers;
+
+    private final boolean enabled;
+    private final Duration minAge;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final Duration baseBackoff;
+    private final Duration maxBackoff;
+
+    public PaymentReconciler(
+            MpesaPaymentRepository paymentRepository,
+            DarajaService darajaService,
+            PaymentCallbackService callbackService,
+            @Value("${app.reconcile.enabled:true}") boolean enabled,
+            @Value("${app.reconcile.concurrency:4}") int concurrency,
+            @Value("${app.reconcile.min-age-seconds:90}") long minAgeSeconds,
+            @Value("${app.reconcile.batch-size:50}") int batchSize,
+            @Value("${app.reconcile.max-attempts:8}") int maxAttempts,
+            @Value("${app.reconcile.base-backoff-seconds:30}") long baseBackoffSeconds,
+            @Value("${app.reconcile.max-backoff-seconds:1800}") long maxBackoffSeconds,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads
+    ) {
+        this.paymentRepository = paymentRepository;
+        this.darajaService = darajaService;
+        this.callbackService = callbackService;
+        this.enabled = enabled;
+        this.minAge = Duration.ofSeconds(minAgeSeconds);
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoff = Duration.ofSeconds(baseBackoffSeconds);
+        this.maxBackoff = Duration.ofSeconds(maxBackoffSeconds);
+
+        this.workers = Executors.newFixedThreadPool(concurrency, WorkerThreads.factory("payment-reconciler-", virtualThreads));
+    }
+
+    @Scheduled(fixedDelayString = "${app.reconcile.interval-ms:30000}")
+    public void reconcile() throws InterruptedException {
+        if (!enabled) return;
+
+        Instant now = Instant.now();
+        List<PendingPaymentQuery> due = paymentRepository.findDueForQuery(
+                now.minus(minAge), now, maxAttempts, Limit.of(batchSize));
+        if (due.isEmpty()) return;
+
+        List<Callable<Void>> tasks = new ArrayList<>(due.size());
+        for (PendingPaymentQuery p : due) {
+            tasks.add(() -> {
+                query(p);
+                return null;
+            });
+        }
+        workers.invokeAll(tasks);
+    }
+
+    private void query(PendingPaymentQuery p) {
+        if (p.getCheckoutRequestId() == null) {
+            // STK push outcome unknown (StkPushDispatcher): nothing to query, wait for a matching callback
+            retryLater(p, "STK push outcome unknown, no CheckoutRequestID");
+            return;
+        }
+        try {
+            Map<String, Object> resp = darajaService.stkQuery(p.getShortcode(), p.getCheckoutRequestId());
+            Object resultCode = resp.get("ResultCode");
+
+            if (resultCode == null || STILL_PROCESSING.equals(String.valueOf(resultCode))) {
+                retryLater(p, "no result yet");
+                return;
+            }
+
+            boolean success = "0".equals(String.valueOf(resultCode));
+            callbackService.applyQueryResult(p.getId(), success);
+            log.info("Reconciled payment {} ({}): ResultCode {}", p.getId(), p.getCheckoutRequestId(), resultCode);
+        } catch (DarajaUnavailableException e) {
+            // Circuit open / busy: not this payment's fault, ask again next run without using an attempt
+        } catch (Exception e) {
+            // Includes Daraja's HTTP 500 "transaction is being processed"
+            retryLater(p, e.getMessage());
+        }
+    }
+
+    private void retryLater(PendingPaymentQuery p, String reason) {
+        int attempt = p.getQueryAttempts() + 1;
+        Duration d = baseBackoff.multipliedBy(1L << Math.min(attempt - 1, 20));
+        if (d.compareTo(maxBackoff) > 0) d = maxBackoff;
+
+        paymentRepository.scheduleNextQuery(p.getId(), Instant.now().plus(d));
+        if (attempt >= maxAttempts) {
+            // Out of attempts: settle it rather than leave it PENDING (and its seats held) forever
+            callbackService.applyQueryResult(p.getId(), false);
+            log.error("Payment {} ({}) unresolved after {} STK queries, marked FAILED: {}",
+                    p.getId(), p.getCheckoutRequestId(), attempt, reason);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdown();
+    }
+}
@@ -0,0 +1,141 @@
+package com.nganyaexperience.backend.service;
+
+import com.nganyaexperience.backend.entity.Booking;
+import com.nganyaexperience.backend.entity.MpesaPayment;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes payment status changes to clients waiting on GET /api/payments/status/{checkoutRequestId}/stream (SSE),
+ * so the checkout page does not have to poll the DB while the customer is on the M-Pesa PIN prompt.
+ * Callback and reconciler paths publish after their transaction commits; the stream closes on PAID / FAILED.
+ */
+@Slf4j
+@Component
+public class PaymentStatusNotifier {
+
+    private final Map<String, Set<SseEmitter>> waiting = new ConcurrentHashMap<>();
+    private final AtomicInteger open = new AtomicInteger();
+
+    private final long timeoutMs;
+    private final int maxStreams;
+
+    public PaymentStatusNotifier(
+            @Value("${app.payments.status-stream-timeout-seconds:120}") long timeoutSeconds,
+            @Value("${app.payments.max-status-streams:5000}") int maxStreams
+    ) {
+        this.timeoutMs = timeoutSeconds * 1000;
+        this.maxStreams = maxStreams;
+    }
+
+    /**
+     * Same body as GET /api/payments/status/{checkoutRequestId}.
+     */
+    public static Map<String, Object> statusBody(MpesaPayment payment, Booking booking) {
+        // ticketCode / lastTicketCode are null until paid, so no Map.of here
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("paymentStatus", payment.getStatus());
+        body.put("bookingPaymentStatus", booking.getPaymentStatus());
+        body.put("ticketCode", booking.getTicketCode());
+        body.put("lastTicketCode", booking.getLastTicketCode());
+        body.put("quantity", booking.seatCount());
+        body.put("bookingId", booking.getId());
+        return body;
+    }
+
+    /**
+     * Open a stream for a payment. Returns null when too many streams are open (client falls back to polling).
+     * Register first, then send the current state, so a change in between is not missed.
+     */
+    public SseEmitter subscribe(String checkoutRequestId) {
+        if (open.incrementAndGet() > maxStreams) {
+            open.decrementAndGet();
+            return null;
+        }
+
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        // Add and empty-set removal both run inside compute (locked per key), so a stream that closes
+        // while another subscribes can never drop the set the new emitter was just added to
+        waiting.compute(checkoutRequestId, (k, v) -> {
+            Set<SseEmitter> set = v == null ? new CopyOnWriteArraySet<>() : v;
+            set.add(emitter);
+            return set;
+        });
+
+        Runnable remove = () -> {
+            AtomicBoolean removed = new AtomicBoolean();
+            waiting.compute(checkoutRequestId, (k, v) -> {
+                if (v == null) return null;
+                removed.set(v.remove(emitter));
+                return v.isEmpty() ? null : v;
+            });
+            if (removed.get()) open.decrementAndGet();
+        };
+        emitter.onCompletion(remove);
+        emitter.onTimeout(() -> {
+            remove.run();
+            emitter.complete();
+        });
+        emitter.onError(e -> remove.run());
+        return emitter;
+    }
+
+    /**
+     * Send the current state to one stream (first event after subscribe).
+     */
+    public void sendCurrent(SseEmitter emitter, MpesaPayment payment, Booking booking) {
+        send(emitter, statusBody(payment, booking), payment.getStatus() != MpesaPayment.Status.PENDING);
+    }
+
+    /**
+     * Notify everyone waiting on this payment once the current transaction commits.
+     */
+    public void publishAfterCommit(MpesaPayment payment, Booking booking) {
+        String checkoutRequestId = payment.getCheckoutRequestId();
+        if (checkoutRequestId == null) return;
+
+        // Snapshot now: the entities must not be touched after the transaction ends
+        Map<String, Object> body = statusBody(payment, booking);
+        boolean terminal = payment.getStatus() != MpesaPayment.Status.PENDING;
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    publish(checkoutRequestId, body, terminal);
+                }
+            });
+        } else {
+            publish(checkoutRequestId, body, terminal);
+        }
+    }
+
+    private void publish(String checkoutRequestId, Map<String, Object> body, boolean terminal) {
+        Set<SseEmitter> set = waiting.get(checkoutRequestId);
+        if (set == null) return;
+        for (SseEmitter emitter : set) send(emitter, body, terminal);
+    }
+
+    private static void send(SseEmitter emitter, Map<String, Object> body, boolean terminal) {
+        try {
+            emitter.send(SseEmitter.event().name("status").data(body));
+            if (terminal) emitter.complete();
+        } catch (IOException | IllegalStateException e) {
+            // Client went away; onError/onCompletion cleans up
+            emitter.completeWithError(e);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.nganyaexperience.backend.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Releases seat holds of PENDING bookings that were not paid in time (booking -> CANCELLED).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SeatHoldSweeper {
+
+    private final BookingService bookingService;
+
+    @Value("${app.holds.sweep-batch-size:200}")
+    private int batchSize;
+
+    // Upper bound per run so one sweep never monopolises the DB pool
+    @Value("${app.holds.sweep-max-batches:20}")
+    private int maxBatches;
+
+    @Scheduled(fixedDelayString = "${app.holds.sweep-interval-ms:15000}")
+    public void sweep() {
+        int total = 0;
+        for (int i = 0; i < maxBatches; i++) {
+            int released = bookingService.releaseExpiredHolds(batchSize);
+            total += released;
+            if (released < batchSize) break;
+        }
+        if (total > 0) log.info("Released {} expired seat holds", total);
+    }
+}
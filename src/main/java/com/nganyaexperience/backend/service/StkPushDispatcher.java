@@ -0,0 +1,335 @@
+package com.nganyaexperience.backend.service;
+
+import com.nganyaexperience.backend.entity.Booking;
+import com.nganyaexperience.backend.entity.MpesaPayment;
+import com.nganyaexperience.backend.entity.StkPushQueueEntry;
+import com.nganyaexperience.backend.payments.DarajaGateway;
+import com.nganyaexperience.backend.payments.DarajaUnavailableException;
+import com.nganyaexperience.backend.payments.PaymentRoute;
+import com.nganyaexperience.backend.payments.PaymentRoutingRegistry;
+import com.nganyaexperience.backend.repository.BookingRepository;
+import com.nganyaexperience.backend.repository.MpesaPaymentRepository;
+import com.nganyaexperience.backend.repository.StkPushQueueRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.ConnectTimeoutException;
+import org.apache.hc.core5.http.ConnectionRequestTimeoutException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Outbound STK pushes, rate limited per shortcode (Event.paymentNumber) with a token bucket so a launch
+ * burst is spread over Daraja's TPS quota instead of being throttled.
+ * <p>
+ * POST /api/payments/stk-push sends at once while the bucket has a token and nothing is waiting;
+ * otherwise the push is stored in stk_push_queue (survives restarts) and the client gets its position / ETA.
+ * The dispatcher drains the queue in order as tokens refill. Buckets are per instance.
+ * <p>
+ * A push is only retried when it provably never reached Safaricom (429, breaker open / bulkhead full,
+ * connection refused or not established). A timeout, a 5xx or a sender that died mid-call leaves the push
+ * UNKNOWN: the payment is recorded without a CheckoutRequestID and settled by the callback (matched on
+ * phone + amount) or expired by PaymentReconciler, never by prompting the customer a second time.
+ */
+@Slf4j
+@Service
+public class StkPushDispatcher {
+
+    public record Position(Long queueId, StkPushQueueEntry.Status status, long position, long etaSeconds,
+                           String checkoutRequestId, String error) {
+    }
+
+    // Classic token bucket: refills at ratePerSecond, holds at most burst tokens
+    private static final class Bucket {
+        double tokens;
+        long lastRefillNanos = System.nanoTime();
+
+        Bucket(double tokens) {
+            this.tokens = tokens;
+        }
+    }
+
+    private final StkPushQueueRepository queueRepository;
+    private final BookingRepository bookingRepository;
+    private final MpesaPaymentRepository paymentRepository;
+    private final PaymentRoutingRegistry routingRegistry;
+    private final DarajaService darajaService;
+
+    private final boolean enabled;
+    private final double ratePerSecond;
+    private final double burst;
+    private final int maxAttempts;
+    private final Duration lease;
+    private final Duration baseBackoff;
+    private final Duration retention;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    public StkPushDispatcher(
+            StkPushQueueRepository queueRepository,
+            BookingRepository bookingRepository,
+            MpesaPaymentRepository paymentRepository,
+            PaymentRoutingRegistry routingRegistry,
+            DarajaService darajaService,
+            @Value("${app.stk-queue.enabled:true}") boolean enabled,
+            @Value("${app.stk-queue.rate-per-second:5}") double ratePerSecond,
+            @Value("${app.stk-queue.burst:10}") double burst,
+            @Value("${app.stk-queue.max-attempts:5}") int maxAttempts,
+            @Value("${app.stk-queue.lease-seconds:60}") long leaseSeconds,
+            @Value("${app.stk-queue.base-backoff-seconds:2}") long baseBackoffSeconds,
+            @Value("${app.stk-queue.retention-hours:24}") long retentionHours
+    ) {
+        this.queueRepository = queueRepository;
+        this.bookingRepository = bookingRepository;
+        this.paymentRepository = paymentRepository;
+        this.routingRegistry = routingRegistry;
+        this.darajaService = darajaService;
+        this.enabled = enabled;
+        this.ratePerSecond = ratePerSecond;
+        this.burst = Math.max(1, burst);
+        this.maxAttempts = maxAttempts;
+        this.lease = Duration.ofSeconds(leaseSeconds);
+        this.baseBackoff = Duration.ofSeconds(baseBackoffSeconds);
+        this.retention = Duration.ofHours(retentionHours);
+    }
+
+    /**
+     * Take a token for a push that is about to be sent right away.
+     * False when the bucket is empty or earlier pushes for this shortcode are still waiting (enqueue instead).
+     */
+    public boolean trySendNow(String shortcode) {
+        if (!enabled) return true;
+        if (queueRepository.existsByShortcodeAndStatus(shortcode, StkPushQueueEntry.Status.QUEUED)) return false;
+        return tryTake(shortcode);
+    }
+
+    public Position enqueue(Booking booking, PaymentRoute route, String phone254, int amount,
+                            String accountReference, String transactionDesc) {
+        Instant now = Instant.now();
+        StkPushQueueEntry entry = queueRepository.save(StkPushQueueEntry.builder()
+                .bookingId(booking.getId())
+                .shortcode(route.shortcode())
+                .phone(phone254)
+                .amount(amount)
+                .accountReference(accountReference)
+                .transactionDesc(transactionDesc)
+                .status(StkPushQueueEntry.Status.QUEUED)
+                .attempts(0)
+                .nextAttemptAt(now)
+                .enqueuedAt(now)
+                .build());
+        return position(entry);
+    }
+
+    /**
+     * Where a queued push stands. Returns null for unknown ids.
+     */
+    public Position position(Long queueId) {
+        return queueRepository.findById(queueId).map(this::position).orElse(null);
+    }
+
+    private Position position(StkPushQueueEntry e) {
+        if (e.getStatus() != StkPushQueueEntry.Status.QUEUED && e.getStatus() != StkPushQueueEntry.Status.SENDING) {
+            return new Position(e.getId(), e.getStatus(), 0, 0, e.getCheckoutRequestId(), e.getLastError());
+        }
+        long ahead = queueRepository.countByShortcodeAndStatusAndIdLessThan(
+                e.getShortcode(), StkPushQueueEntry.Status.QUEUED, e.getId());
+        long eta = ratePerSecond > 0 ? (long) Math.ceil((ahead + 1) / ratePerSecond) : 0;
+        return new Position(e.getId(), e.getStatus(), ahead + 1, eta, null, e.getLastError());
+    }
+
+    /**
+     * Save / reset the payment row for a push Daraja accepted (one payment per booking).
+     */
+    public MpesaPayment recordPush(Booking booking, String phone254, int amount,
+                                   String checkoutRequestId, String merchantRequestId) {
+        MpesaPayment payment = paymentRepository.findByBooking_Id(booking.getId()).orElse(
+                MpesaPayment.builder().booking(booking).build()
+        );
+        payment.setPhone(phone254);
+        payment.setAmount((double) amount);
+        payment.setCheckoutRequestId(checkoutRequestId);
+        payment.setMerchantRequestId(merchantRequestId);
+        payment.setStatus(MpesaPayment.Status.PENDING);
+        // New push: the reconciler starts over for it
+        payment.setCreatedAt(Instant.now());
+        payment.setQueryAttempts(0);
+        payment.setNextQueryAt(null);
+        return paymentRepository.save(payment);
+    }
+
+    // Daraja said slow down: empty the bucket so this shortcode pauses until it refills
+    public void throttled(String shortcode) {
+        Bucket b = buckets.computeIfAbsent(shortcode, s -> new Bucket(burst));
+        synchronized (b) {
+            b.tokens = 0;
+            b.lastRefillNanos = System.nanoTime();
+        }
+    }
+
+    public static boolean isThrottled(Throwable error) {
+        return DarajaGateway.unwrap(error) instanceof HttpClientErrorException.TooManyRequests;
+    }
+
+    @Scheduled(fixedDelayString = "${app.stk-queue.dispatch-interval-ms:200}")
+    public void dispatch() {
+        if (!enabled) return;
+        Instant now = Instant.now();
+        for (Long id : queueRepository.expireLeases(now, 100)) {
+            queueRepository.findById(id).ifPresent(e -> unknown(e, "Sender lease expired"));
+        }
+        for (String shortcode : queueRepository.findDueShortcodes(now)) {
+            int available = available(shortcode);
+            if (available == 0) continue;
+
+            List<Long> ids = queueRepository.claim(shortcode, now, now.plus(lease), available);
+            if (ids.isEmpty()) continue;
+            consume(shortcode, ids.size());
+
+            List<StkPushQueueEntry> entries = queueRepository.findAllById(ids);
+            entries.sort(Comparator.comparing(StkPushQueueEntry::getId));
+            for (StkPushQueueEntry e : entries) send(e);
+        }
+    }
+
+    private void send(StkPushQueueEntry e) {
+        Booking booking = bookingRepository.findById(e.getBookingId()).orElse(null);
+        if (booking == null || booking.getPaymentStatus() != Booking.PaymentStatus.PENDING) {
+            // Paid, cancelled or hold expired while waiting: no prompt needed any more
+            queueRepository.finish(e.getId(), StkPushQueueEntry.Status.CANCELLED,
+                    booking == null ? "Booking not found" : "Booking is " + booking.getPaymentStatus());
+            return;
+        }
+
+        try {
+            PaymentRoute route = routingRegistry.forEvent(booking.getEvent());
+            darajaService.stkPushAsync(route, e.getPhone(), e.getAmount(), e.getAccountReference(), e.getTransactionDesc())
+                    .whenComplete((resp, error) -> {
+                        if (error != null) failed(e, error);
+                        else sent(e, booking, resp);
+                    });
+        } catch (RuntimeException ex) {
+            failed(e, ex);
+        }
+    }
+
+    private void sent(StkPushQueueEntry e, Booking booking, Map<String, Object> resp) {
+        Object checkoutRequestId = resp.get("CheckoutRequestID");
+        if (checkoutRequestId == null || String.valueOf(checkoutRequestId).isBlank()) {
+            queueRepository.finish(e.getId(), StkPushQueueEntry.Status.FAILED, "Daraja did not return CheckoutRequestID");
+            return;
+        }
+        Object merchantRequestId = resp.get("MerchantRequestID");
+        recordPush(booking, e.getPhone(), e.getAmount(), String.valueOf(checkoutRequestId),
+                merchantRequestId == null ? null : String.valueOf(merchantRequestId));
+        queueRepository.markSent(e.getId(), Instant.now(), String.valueOf(checkoutRequestId));
+    }
+
+    private void failed(StkPushQueueEntry e, Throwable error) {
+        Throwable cause = DarajaGateway.unwrap(error);
+        String message = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+        if (message.length() > 1000) message = message.substring(0, 1000);
+
+        if (isThrottled(cause)) throttled(e.getShortcode());
+
+        if (mayHaveReachedDaraja(cause)) {
+            unknown(e, message);
+            return;
+        }
+
+        // Never reached Safaricom (or refused before processing): safe to send again; other 4xx are final
+        boolean retryable = isThrottled(cause) || neverSent(cause);
+
+        int attempt = e.getAttempts() + 1;
+        if (retryable && attempt < maxAttempts) {
+            long delay = cause instanceof DarajaUnavailableException u
+                    ? Math.max(u.getRetryAfterSeconds(), 1) * 1000
+                    : baseBackoff.toMillis() << Math.min(attempt - 1, 10);
+            queueRepository.retryLater(e.getId(), Instant.now().plusMillis(delay), message);
+            log.warn("Queued STK push {} failed (attempt {}), retrying: {}", e.getId(), attempt, message);
+        } else {
+            queueRepository.finish(e.getId(), StkPushQueueEntry.Status.FAILED, message);
+            log.error("Queued STK push {} FAILED after {} attempt(s): {}", e.getId(), attempt, message);
+        }
+    }
+
+    // Outcome unknown: record the payment without a CheckoutRequestID; callback or reconciler settle it
+    private void unknown(StkPushQueueEntry e, String message) {
+        queueRepository.finish(e.getId(), StkPushQueueEntry.Status.UNKNOWN, message);
+        bookingRepository.findById(e.getBookingId())
+                .filter(b -> b.getPaymentStatus() == Booking.PaymentStatus.PENDING)
+                .ifPresent(b -> recordPush(b, e.getPhone(), e.getAmount(), null, null));
+        log.error("Queued STK push {} outcome UNKNOWN, not re-sending: {}", e.getId(), message);
+    }
+
+    /**
+     * True when the request provably did not get to Daraja: breaker open / bulkhead full,
+     * no pooled connection in time, or the connection was never established.
+     */
+    static boolean neverSent(Throwable cause) {
+        if (cause instanceof DarajaUnavailableException) return true;
+        if (!(cause instanceof ResourceAccessException)) return false;
+        Throwable io = cause.getCause();
+        return io instanceof ConnectException
+                || io instanceof ConnectTimeoutException
+                || io instanceof ConnectionRequestTimeoutException
+                || io instanceof UnknownHostException;
+    }
+
+    // Read timeouts, other I/O errors and 5xx: Daraja may have accepted (and prompted) already
+    static boolean mayHaveReachedDaraja(Throwable cause) {
+        if (cause instanceof HttpServerErrorException) return true;
+        return cause instanceof ResourceAccessException && !neverSent(cause);
+    }
+
+    // ✅ Drop finished queue rows after the retention period
+    @Scheduled(fixedDelayString = "${app.stk-queue.cleanup-interval-ms:3600000}")
+    public void cleanup() {
+        int removed = queueRepository.deleteFinishedBefore(Instant.now().minus(retention));
+        if (removed > 0) log.info("Removed {} finished STK queue entries", removed);
+    }
+
+    private int available(String shortcode) {
+        Bucket b = buckets.computeIfAbsent(shortcode, s -> new Bucket(burst));
+        synchronized (b) {
+            refill(b);
+            return (int) b.tokens;
+        }
+    }
+
+    private boolean tryTake(String shortcode) {
+        Bucket b = buckets.computeIfAbsent(shortcode, s -> new Bucket(burst));
+        synchronized (b) {
+            refill(b);
+            if (b.tokens < 1) return false;
+            b.tokens -= 1;
+            return true;
+        }
+    }
+
+    // Claimed rows are sent regardless; a race with trySendNow may briefly go negative, which only delays the next ones
+    private void consume(String shortcode, int n) {
+        Bucket b = buckets.computeIfAbsent(shortcode, s -> new Bucket(burst));
+        synchronized (b) {
+            refill(b);
+            b.tokens -= n;
+        }
+    }
+
+    private void refill(Bucket b) {
+        long nowNanos = System.nanoTime();
+        b.tokens = Math.min(burst, b.tokens + (nowNanos - b.lastRefillNanos) / 1e9 * ratePerSecond);
+        b.lastRefillNanos = nowNanos;
+    }
+}
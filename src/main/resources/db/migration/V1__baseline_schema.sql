@@ -0,0 +1,123 @@
+-- Nganya Experience - baseline schema (what ddl-auto=update used to create from the entities).
+-- IF NOT EXISTS throughout: databases created by Hibernate before migrations existed keep their tables,
+-- and V2 adds whatever columns those older tables are missing.
+
+CREATE TABLE IF NOT EXISTS admin (
+    id BIGINT PRIMARY KEY,
+    password VARCHAR(255) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS users (
+    id BIGINT PRIMARY KEY,
+    email VARCHAR(190) NOT NULL,
+    password_hash VARCHAR(255) NOT NULL,
+    created_at TIMESTAMP(6) WITH TIME ZONE NOT NULL,
+    CONSTRAINT uk_users_email UNIQUE (email)
+);
+
+CREATE TABLE IF NOT EXISTS events (
+    id BIGINT PRIMARY KEY,
+    title VARCHAR(255),
+    description VARCHAR(1000),
+    date DATE,
+    time TIME(6),
+    location VARCHAR(255),
+    poster_url VARCHAR(255),
+    status VARCHAR(255),
+    payment_method VARCHAR(255),
+    payment_number VARCHAR(255),
+    paybill_account VARCHAR(255)
+);
+
+CREATE TABLE IF NOT EXISTS ticket_types (
+    id BIGINT PRIMARY KEY,
+    name VARCHAR(255),
+    price DOUBLE PRECISION,
+    capacity INTEGER,
+    sold INTEGER,
+    held INTEGER DEFAULT 0,
+    event_id BIGINT REFERENCES events (id)
+);
+
+CREATE TABLE IF NOT EXISTS bookings (
+    id BIGINT PRIMARY KEY,
+    ticket_code VARCHAR(255),
+    last_ticket_code VARCHAR(255),
+    quantity INTEGER DEFAULT 1,
+    customer_name VARCHAR(255),
+    phone_number VARCHAR(255),
+    event_id BIGINT REFERENCES events (id),
+    ticket_type_id BIGINT REFERENCES ticket_types (id),
+    payment_status VARCHAR(255),
+    hold_expires_at TIMESTAMP(6) WITH TIME ZONE,
+    CONSTRAINT ux_bookings_ticket_code UNIQUE (ticket_code)
+);
+
+CREATE TABLE IF NOT EXISTS nganyas (
+    id BIGINT PRIMARY KEY,
+    name VARCHAR(255),
+    size VARCHAR(255),
+    image_url VARCHAR(255)
+);
+
+CREATE TABLE IF NOT EXISTS mpesa_payments (
+    id BIGINT PRIMARY KEY,
+    booking_id BIGINT REFERENCES bookings (id),
+    phone VARCHAR(255),
+    amount DOUBLE PRECISION,
+    merchant_request_id VARCHAR(255),
+    checkout_request_id VARCHAR(255),
+    mpesa_receipt VARCHAR(255),
+    status VARCHAR(255),
+    raw_callback TEXT,
+    created_at TIMESTAMP(6) WITH TIME ZONE,
+    query_attempts INTEGER NOT NULL DEFAULT 0,
+    next_query_at TIMESTAMP(6) WITH TIME ZONE,
+    CONSTRAINT ux_mpesa_payments_booking_id UNIQUE (booking_id),
+    CONSTRAINT ux_mpesa_payments_checkout_request_id UNIQUE (checkout_request_id)
+);
+
+CREATE TABLE IF NOT EXISTS idempotency_keys (
+    id VARCHAR(200) PRIMARY KEY,
+    fingerprint VARCHAR(300),
+    state VARCHAR(20),
+    status_code INTEGER,
+    response_body VARCHAR(20000),
+    expires_at TIMESTAMP(6) WITH TIME ZONE NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS mpesa_callback_inbox (
+    id BIGINT PRIMARY KEY,
+    payload TEXT NOT NULL,
+    status VARCHAR(20) NOT NULL,
+    attempts INTEGER NOT NULL,
+    next_attempt_at TIMESTAMP(6) WITH TIME ZONE NOT NULL,
+    received_at TIMESTAMP(6) WITH TIME ZONE NOT NULL,
+    processed_at TIMESTAMP(6) WITH TIME ZONE,
+    last_error VARCHAR(1000)
+);
+
+CREATE TABLE IF NOT EXISTS stk_push_queue (
+    id BIGINT PRIMARY KEY,
+    booking_id BIGINT NOT NULL,
+    shortcode VARCHAR(20) NOT NULL,
+    phone VARCHAR(20) NOT NULL,
+    amount INTEGER NOT NULL,
+    account_reference VARCHAR(255),
+    transaction_desc VARCHAR(255),
+    status VARCHAR(20) NOT NULL,
+    attempts INTEGER NOT NULL,
+    next_attempt_at TIMESTAMP(6) WITH TIME ZONE NOT NULL,
+    enqueued_at TIMESTAMP(6) WITH TIME ZONE NOT NULL,
+    sent_at TIMESTAMP(6) WITH TIME ZONE,
+    checkout_request_id VARCHAR(255),
+    last_error VARCHAR(1000)
+);
+
+-- Indexes declared on the entities
+CREATE INDEX IF NOT EXISTS idx_events_date_time_id ON events (date, time, id);
+CREATE INDEX IF NOT EXISTS idx_events_status_date_time_id ON events (status, date, time, id);
+CREATE INDEX IF NOT EXISTS idx_bookings_status_hold_expires ON bookings (payment_status, hold_expires_at);
+CREATE INDEX IF NOT EXISTS idx_idempotency_keys_expires_at ON idempotency_keys (expires_at);
+CREATE INDEX IF NOT EXISTS idx_callback_inbox_status_next_attempt ON mpesa_callback_inbox (status, next_attempt_at);
+CREATE INDEX IF NOT EXISTS idx_stk_push_queue_shortcode_status ON stk_push_queue (shortcode, status, next_attempt_at);
@@ -1,10 +1,17 @@
--- Nganya Experience - Production DB Fix / Migration
--- Safe to run multiple times.
+-- Columns and data fixes older databases need (formerly PRODUCTION_DB_FIX.sql, sections 1-5).
+-- Idempotent, so it is also harmless on a database V1 just created.
 
 -- 1) Ensure bookings has expected columns
 ALTER TABLE IF EXISTS bookings
     ADD COLUMN IF NOT EXISTS payment_status VARCHAR(20) DEFAULT 'PENDING',
-    ADD COLUMN IF NOT EXISTS ticket_code VARCHAR(64);
+    ADD COLUMN IF NOT EXISTS ticket_code VARCHAR(64),
+    ADD COLUMN IF NOT EXISTS hold_expires_at TIMESTAMP WITH TIME ZONE,
+    ADD COLUMN IF NOT EXISTS quantity INTEGER DEFAULT 1,
+    ADD COLUMN IF NOT EXISTS last_ticket_code VARCHAR(64);
+
+-- Seats held by PENDING bookings (released by the hold sweeper)
+ALTER TABLE IF EXISTS ticket_types
+    ADD COLUMN IF NOT EXISTS held INTEGER DEFAULT 0;
 
 -- 2) Ensure mpesa_payments has expected columns
 ALTER TABLE IF EXISTS mpesa_payments
@@ -12,7 +19,13 @@ ALTER TABLE IF EXISTS mpesa_payments
     ADD COLUMN IF NOT EXISTS raw_callback TEXT,
     ADD COLUMN IF NOT EXISTS mpesa_receipt VARCHAR(64),
     ADD COLUMN IF NOT EXISTS merchant_request_id VARCHAR(128),
-    ADD COLUMN IF NOT EXISTS checkout_request_id VARCHAR(128);
+    ADD COLUMN IF NOT EXISTS checkout_request_id VARCHAR(128),
+    ADD COLUMN IF NOT EXISTS created_at TIMESTAMP WITH TIME ZONE,
+    ADD COLUMN IF NOT EXISTS query_attempts INTEGER NOT NULL DEFAULT 0,
+    ADD COLUMN IF NOT EXISTS next_query_at TIMESTAMP WITH TIME ZONE;
+
+-- Reconciler scan: PENDING payments oldest first
+CREATE INDEX IF NOT EXISTS idx_mpesa_payments_status_created_at ON mpesa_payments (status, created_at);
 
 -- Unique checkout id (Daraja sends this back on callback)
 DO $$
@@ -36,14 +49,16 @@ END $$;
 
 -- 3) Normalize null statuses
 UPDATE bookings SET payment_status = 'PENDING' WHERE payment_status IS NULL;
+UPDATE bookings SET quantity = 1 WHERE quantity IS NULL;
 UPDATE mpesa_payments SET status = 'PENDING' WHERE status IS NULL;
+UPDATE mpesa_payments SET created_at = NOW() WHERE created_at IS NULL;
 
 -- 4) Fix ticket_types sold counters
--- IMPORTANT: sold should reflect ONLY PAID bookings (not PENDING)
+-- IMPORTANT: sold should reflect ONLY PAID bookings (not PENDING), counted in seats
 UPDATE ticket_types tt
 SET sold = COALESCE(
     (
-        SELECT COUNT(*)
+        SELECT SUM(COALESCE(b.quantity, 1))
         FROM bookings b
         WHERE b.ticket_type_id = tt.id
           AND UPPER(COALESCE(b.payment_status, 'PENDING')) = 'PAID'
@@ -55,6 +70,16 @@ SET sold = COALESCE(
 UPDATE ticket_types SET sold = 0 WHERE sold IS NULL;
 UPDATE ticket_types SET capacity = 0 WHERE capacity IS NULL;
 
+-- held should reflect ONLY PENDING bookings that still have a live hold
+UPDATE ticket_types tt
+SET held = (
+    SELECT COALESCE(SUM(COALESCE(b.quantity, 1)), 0)
+    FROM bookings b
+    WHERE b.ticket_type_id = tt.id
+      AND b.payment_status = 'PENDING'
+      AND b.hold_expires_at IS NOT NULL
+);
+
 -- 5) Optional: mark orphan mpesa payments as FAILED
 -- (payments without a booking should not exist, but just in case)
 UPDATE mpesa_payments p
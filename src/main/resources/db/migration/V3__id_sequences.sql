@@ -0,0 +1,23 @@
+-- Id sequences for pooled generation (allocationSize = 50, enables JDBC batch inserts)
+-- (formerly PRODUCTION_DB_FIX.sql, section 6)
+-- Hibernate's pooled optimizer uses ids (value - 49 .. value], so each sequence is moved past MAX(id)
+-- of its table (never backwards).
+DO $$
+DECLARE
+    t TEXT;
+    max_id BIGINT;
+    last_id BIGINT;
+BEGIN
+    FOREACH t IN ARRAY ARRAY['admin', 'users', 'events', 'ticket_types', 'bookings', 'mpesa_payments',
+                             'nganyas', 'mpesa_callback_inbox', 'stk_push_queue'] LOOP
+        EXECUTE format('CREATE SEQUENCE IF NOT EXISTS %I START WITH 1 INCREMENT BY 50', t || '_seq');
+        EXECUTE format('ALTER SEQUENCE %I INCREMENT BY 50', t || '_seq');
+
+        max_id := 0;
+        IF to_regclass(t) IS NOT NULL THEN
+            EXECUTE format('SELECT COALESCE(MAX(id), 0) FROM %I', t) INTO max_id;
+        END IF;
+        EXECUTE format('SELECT last_value FROM %I', t || '_seq') INTO last_id;
+        PERFORM setval(t || '_seq', GREATEST(max_id, last_id, 1));
+    END LOOP;
+END $$;
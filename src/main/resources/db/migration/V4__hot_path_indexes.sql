@@ -0,0 +1,13 @@
+-- Indexes for the hot read paths
+
+-- BookingRepository.countByTicketTypeId and the per ticket type / payment status seat counts
+CREATE INDEX IF NOT EXISTS idx_bookings_ticket_type_status ON bookings (ticket_type_id, payment_status);
+
+-- Loading an event's ticket types (Event.tickets)
+CREATE INDEX IF NOT EXISTS idx_ticket_types_event_id ON ticket_types (event_id);
+
+-- MpesaPaymentRepository.findByCheckoutRequestId (callbacks, status, SSE) uses ux_mpesa_payments_checkout_request_id
+-- and the reconciler's PENDING scan idx_mpesa_payments_status_created_at, both from V2.
+
+-- AppUserRepository.findByEmailIgnoreCase: Spring Data compares upper(email) = upper(?)
+CREATE INDEX IF NOT EXISTS idx_users_upper_email ON users (UPPER(email));
@@ -0,0 +1,15 @@
+-- Keyset paging for /api/events/page (EventPageRepositoryImpl).
+-- The page query compares (COALESCE(date, 'infinity'), COALESCE(time, '24:00'), id) as one row value,
+-- so undated / untimed events sort last; these indexes are on exactly those expressions.
+CREATE INDEX IF NOT EXISTS idx_events_page
+    ON events ((COALESCE(date, 'infinity'::date)), (COALESCE(time, '24:00'::time)), id);
+CREATE INDEX IF NOT EXISTS idx_events_status_page
+    ON events (status, (COALESCE(date, 'infinity'::date)), (COALESCE(time, '24:00'::time)), id);
+
+-- Replaced by the two above (the paging query no longer orders by the raw nullable columns)
+DROP INDEX IF EXISTS idx_events_date_time_id;
+DROP INDEX IF EXISTS idx_events_status_date_time_id;
+
+-- Location filter is a substring match (lower(location) LIKE '%x%'): trigram GIN index
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE INDEX IF NOT EXISTS idx_events_location_trgm ON events USING gin (lower(location) gin_trgm_ops);
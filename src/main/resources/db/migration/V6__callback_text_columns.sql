@@ -0,0 +1,5 @@
+-- A callback accepted into the inbox must also fit mpesa_payments.raw_callback, or its payment update fails on
+-- every retry and the entry goes DEAD although the customer paid. Both are TEXT (V1 now creates them that way;
+-- this fixes databases where they were VARCHAR(5000) / VARCHAR(20000)). varchar -> text needs no table rewrite.
+ALTER TABLE mpesa_payments ALTER COLUMN raw_callback TYPE TEXT;
+ALTER TABLE mpesa_callback_inbox ALTER COLUMN payload TYPE TEXT;
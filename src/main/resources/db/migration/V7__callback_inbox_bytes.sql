@@ -0,0 +1,4 @@
+-- The callback inbox keeps the request body exactly as Safaricom sent it. Stored as bytes, the body is no longer
+-- decoded to a String (and re-encoded by the driver) on the acknowledge path, and nothing is lost if it is not
+-- valid UTF-8. Existing rows were written as UTF-8 text.
+ALTER TABLE mpesa_callback_inbox ALTER COLUMN payload TYPE BYTEA USING convert_to(payload, 'UTF8');
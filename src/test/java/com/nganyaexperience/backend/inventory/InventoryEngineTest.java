@@ -0,0 +1,176 @@
+package com.nganyaexperience.backend.inventory;
+
+import com.nganyaexperience.backend.entity.TicketType;
+import com.nganyaexperience.backend.repository.BookingRepository;
+import com.nganyaexperience.backend.repository.TicketTypeRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class InventoryEngineTest {
+
+    private static final Long TICKET = 1L;
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private static InventoryEngine engine(int capacity) {
+        TicketTypeRepository tickets = mock(TicketTypeRepository.class);
+        BookingRepository bookings = mock(BookingRepository.class);
+        when(tickets.findAll()).thenReturn(List.of(TicketType.builder().id(TICKET).capacity(capacity).build()));
+        when(bookings.sumSeatsByTicketTypeIdsGroupByStatus(anyList())).thenReturn(List.of());
+        when(bookings.sumHeldSeatsByTicketTypeIds(anyList())).thenReturn(List.of());
+
+        InventoryEngine engine = new InventoryEngine(tickets, bookings, mock(JdbcTemplate.class),
+                mock(InventoryOwnerLock.class));
+        engine.loadAll();
+        return engine;
+    }
+
+    // Simulates the end of a transaction: runs the registered afterCompletion callbacks
+    private static void complete(int status) {
+        List<TransactionSynchronization> syncs = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        syncs.forEach(s -> s.afterCompletion(status));
+    }
+
+    @Test
+    void concurrentHoldsNeverExceedCapacity() throws Exception {
+        InventoryEngine engine = engine(100);
+        AtomicInteger granted = new AtomicInteger();
+
+        runConcurrently(16, 50, () -> {
+            if (engine.tryHold(TICKET, 1)) granted.incrementAndGet();
+        });
+
+        assertEquals(100, granted.get());
+        assertEquals(100, engine.held(TICKET));
+        assertEquals(0, engine.seatsLeft(TICKET));
+        assertFalse(engine.tryHold(TICKET, 1));
+    }
+
+    @Test
+    void concurrentClaimsHandOutDistinctSeatSequences() throws Exception {
+        InventoryEngine engine = engine(200);
+        Set<Integer> sequences = ConcurrentHashMap.newKeySet();
+        AtomicInteger soldOut = new AtomicInteger();
+
+        runConcurrently(8, 40, () -> {
+            OptionalInt seq = engine.claim(TICKET, 1, false);
+            if (seq.isPresent()) assertTrue(sequences.add(seq.getAsInt()));
+            else soldOut.incrementAndGet();
+        });
+
+        assertEquals(200, sequences.size());
+        assertEquals(120, soldOut.get());
+        assertEquals(200, engine.sold(TICKET));
+    }
+
+    @Test
+    void claimFromHoldConvertsHeldSeats() {
+        InventoryEngine engine = engine(3);
+        assertTrue(engine.tryHold(TICKET, 2));
+
+        assertEquals(OptionalInt.of(2), engine.claim(TICKET, 2, true));
+        assertEquals(0, engine.held(TICKET));
+        assertEquals(1, engine.seatsLeft(TICKET));
+    }
+
+    @Test
+    void holdIsUndoneOnRollback() {
+        InventoryEngine engine = engine(5);
+        TransactionSynchronizationManager.initSynchronization();
+
+        assertTrue(engine.tryHold(TICKET, 3));
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        assertEquals(0, engine.held(TICKET));
+    }
+
+    @Test
+    void holdIsKeptOnCommit() {
+        InventoryEngine engine = engine(5);
+        TransactionSynchronizationManager.initSynchronization();
+
+        assertTrue(engine.tryHold(TICKET, 3));
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        assertEquals(3, engine.held(TICKET));
+    }
+
+    @Test
+    void claimIsUndoneOnRollback() {
+        InventoryEngine engine = engine(5);
+        assertTrue(engine.tryHold(TICKET, 2));
+        TransactionSynchronizationManager.initSynchronization();
+
+        assertTrue(engine.claim(TICKET, 2, true).isPresent());
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        assertEquals(0, engine.sold(TICKET));
+        assertEquals(2, engine.held(TICKET));
+    }
+
+    @Test
+    void releaseIsUndoneOnRollback() {
+        InventoryEngine engine = engine(5);
+        assertTrue(engine.tryHold(TICKET, 2));
+        TransactionSynchronizationManager.initSynchronization();
+
+        engine.releaseHold(TICKET, 2);
+        assertEquals(0, engine.held(TICKET));
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        assertEquals(2, engine.held(TICKET));
+    }
+
+    @Test
+    void reloadSwapsInFreshCounters() {
+        InventoryEngine engine = engine(5);
+        assertTrue(engine.tryHold(TICKET, 2));
+
+        engine.loadAll();
+
+        // Rebuilt from the (mocked, empty) bookings table
+        assertEquals(0, engine.held(TICKET));
+        assertEquals(5, engine.seatsLeft(TICKET));
+    }
+
+    private static void runConcurrently(int threads, int perThread, Runnable task) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            for (int t = 0; t < threads; t++) {
+                pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) task.run();
+                    return null;
+                });
+            }
+            start.countDown();
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,56 @@
+package com.nganyaexperience.backend.inventory;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class InventoryOwnerLockTest {
+
+    private final DataSource dataSource = mock(DataSource.class);
+    private final Connection connection = mock(Connection.class);
+    private final PreparedStatement statement = mock(PreparedStatement.class);
+    private final ResultSet result = mock(ResultSet.class);
+
+    private void lockAvailable(boolean available) throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(result);
+        when(result.next()).thenReturn(true);
+        when(result.getBoolean(1)).thenReturn(available);
+    }
+
+    @Test
+    void keepsTheConnectionWhileOwningTheLock() throws Exception {
+        lockAvailable(true);
+        InventoryOwnerLock lock = new InventoryOwnerLock(dataSource, true);
+
+        lock.acquire();
+        verify(connection, never()).close();
+
+        lock.release();
+        verify(connection).prepareStatement("SELECT pg_advisory_unlock(?)");
+        verify(connection).close();
+    }
+
+    @Test
+    void refusesToStartWhenAnotherInstanceOwnsTheInventory() throws Exception {
+        lockAvailable(false);
+        InventoryOwnerLock lock = new InventoryOwnerLock(dataSource, true);
+
+        assertThrows(RuntimeException.class, lock::acquire);
+        verify(connection).close();
+    }
+
+    @Test
+    void disabledLockTouchesNoDatabase() throws Exception {
+        new InventoryOwnerLock(dataSource, false).acquire();
+        verifyNoInteractions(dataSource);
+    }
+}
@@ -0,0 +1,116 @@
+package com.nganyaexperience.backend.payments;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DarajaGatewayTest {
+
+    // window 4, opens when 2 of the last 4 calls failed
+    private static DarajaGateway gateway(long openSeconds) {
+        return new DarajaGateway(2, 10, 3, 1, 4, 4, 0.5, openSeconds);
+    }
+
+    private static String fail() {
+        throw new ResourceAccessException("Read timed out");
+    }
+
+    private static void trip(DarajaGateway gateway) {
+        for (int i = 0; i < 4; i++) {
+            assertThrows(ResourceAccessException.class, () -> gateway.call("stkPush", DarajaGatewayTest::fail));
+        }
+    }
+
+    @Test
+    void opensAndFailsFastAfterTooManyFailures() {
+        DarajaGateway gateway = gateway(30);
+        trip(gateway);
+
+        AtomicInteger calls = new AtomicInteger();
+        DarajaUnavailableException e = assertThrows(DarajaUnavailableException.class,
+                () -> gateway.call("stkPush", calls::incrementAndGet));
+        assertEquals(0, calls.get());
+        assertTrue(e.getRetryAfterSeconds() >= 1);
+    }
+
+    @Test
+    void clientErrorsDoNotOpenTheCircuit() {
+        DarajaGateway gateway = gateway(30);
+        for (int i = 0; i < 4; i++) {
+            assertThrows(HttpClientErrorException.class, () -> gateway.call("stkPush", () -> {
+                throw HttpClientErrorException.create(HttpStatus.BAD_REQUEST, "Bad Request", HttpHeaders.EMPTY, new byte[0], null);
+            }));
+        }
+        assertEquals("ok", gateway.call("stkPush", () -> "ok"));
+    }
+
+    @Test
+    void halfOpenLetsOneProbeThroughAndClosesOnSuccess() {
+        DarajaGateway gateway = gateway(0);
+        trip(gateway);
+
+        CompletableFuture<String> probe = new CompletableFuture<>();
+        CompletableFuture<String> result = gateway.callAsync("stkQuery", () -> probe);
+
+        // Only one probe at a time
+        assertThrows(DarajaUnavailableException.class, () -> gateway.call("stkPush", () -> "second"));
+
+        probe.complete("ok");
+        assertEquals("ok", result.join());
+        assertEquals("after", gateway.call("stkPush", () -> "after"));
+    }
+
+    @Test
+    void failedProbeOpensTheCircuitAgain() {
+        DarajaGateway gateway = gateway(0);
+        trip(gateway);
+
+        assertThrows(ResourceAccessException.class, () -> gateway.call("stkQuery", DarajaGatewayTest::fail));
+
+        // Not closed: the next call is a probe again, so a concurrent one is still rejected
+        CompletableFuture<String> probe = new CompletableFuture<>();
+        gateway.callAsync("stkQuery", () -> probe);
+        assertThrows(DarajaUnavailableException.class, () -> gateway.call("stkPush", () -> "second"));
+        probe.complete("ok");
+    }
+
+    @Test
+    void onlyIdempotentCallsAreRetried() {
+        DarajaGateway gateway = gateway(30);
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(ResourceAccessException.class, () -> gateway.call("stkPush", () -> {
+            attempts.incrementAndGet();
+            return fail();
+        }));
+        assertEquals(1, attempts.get());
+
+        attempts.set(0);
+        assertEquals("ok", gateway.callIdempotent("stkQuery", () -> attempts.incrementAndGet() < 3 ? fail() : "ok"));
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    void fullBulkheadFailsAsyncCallsAtOnce() {
+        DarajaGateway gateway = gateway(30);
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        gateway.callAsync("stkPush", () -> first);
+        gateway.callAsync("stkPush", () -> second);
+
+        CompletableFuture<String> third = gateway.callAsync("stkPush", () -> CompletableFuture.completedFuture("third"));
+        Throwable error = assertThrows(Exception.class, third::join);
+        assertInstanceOf(DarajaUnavailableException.class, DarajaGateway.unwrap(error));
+
+        first.complete("ok");
+        assertEquals("fourth", gateway.callAsync("stkPush", () -> CompletableFuture.completedFuture("fourth")).join());
+        second.complete("ok");
+    }
+}
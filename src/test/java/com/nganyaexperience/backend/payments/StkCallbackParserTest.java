@@ -0,0 +1,110 @@
+package com.nganyaexperience.backend.payments;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StkCallbackParserTest {
+
+    private static final String SUCCESS = """
+            {"Body":{"stkCallback":{
+              "MerchantRequestID":"29115-34620561-1",
+              "CheckoutRequestID":"ws_CO_191220191020363925",
+              "ResultCode":0,
+              "ResultDesc":"The service request is processed successfully.",
+              "CallbackMetadata":{"Item":[
+                {"Name":"Amount","Value":1.00},
+                {"Name":"MpesaReceiptNumber","Value":"NLJ7RT61SV"},
+                {"Name":"Balance"},
+                {"Name":"TransactionDate","Value":20191219102115},
+                {"Name":"PhoneNumber","Value":254708374149}
+              ]}
+            }}}
+            """;
+
+    @Test
+    void parsesSuccessWithMetadata() throws IOException {
+        StkCallback cb = StkCallbackParser.parse(SUCCESS);
+
+        assertEquals("29115-34620561-1", cb.merchantRequestId());
+        assertEquals("ws_CO_191220191020363925", cb.checkoutRequestId());
+        assertTrue(cb.isSuccess());
+        assertEquals(1.0, cb.metadata().amount());
+        assertEquals("NLJ7RT61SV", cb.metadata().mpesaReceiptNumber());
+        assertEquals("254708374149", cb.metadata().phoneNumber());
+        assertEquals("20191219102115", cb.metadata().transactionDate());
+    }
+
+    @Test
+    void parsesBytesTheSameWay() throws IOException {
+        assertEquals(StkCallbackParser.parse(SUCCESS), StkCallbackParser.parse(SUCCESS.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void parsesFailureWithoutMetadata() throws IOException {
+        StkCallback cb = StkCallbackParser.parse("""
+                {"Body":{"stkCallback":{"MerchantRequestID":"m","CheckoutRequestID":"c",
+                  "ResultCode":1032,"ResultDesc":"Request cancelled by user"}}}
+                """);
+
+        assertFalse(cb.isSuccess());
+        assertEquals(1032, cb.resultCode());
+        assertEquals("Request cancelled by user", cb.resultDesc());
+        assertNull(cb.metadata());
+    }
+
+    @Test
+    void acceptsStringValues() throws IOException {
+        StkCallback cb = StkCallbackParser.parse("""
+                {"Body":{"stkCallback":{"CheckoutRequestID":"c","ResultCode":"0",
+                  "CallbackMetadata":{"Item":[{"Name":"Amount","Value":"250"},{"Name":"PhoneNumber","Value":"254700000001"}]}}}}
+                """);
+
+        assertTrue(cb.isSuccess());
+        assertEquals(250.0, cb.metadata().amount());
+        assertEquals("254700000001", cb.metadata().phoneNumber());
+        assertNull(cb.metadata().mpesaReceiptNumber());
+    }
+
+    @Test
+    void toleratesMissingOrOddMetadata() throws IOException {
+        StkCallback cb = StkCallbackParser.parse("""
+                {"Body":{"stkCallback":{"CheckoutRequestID":"c","ResultCode":0,"CallbackMetadata":null}}}
+                """);
+        assertNull(cb.metadata());
+
+        cb = StkCallbackParser.parse("""
+                {"Body":{"stkCallback":{"CheckoutRequestID":"c","ResultCode":0,
+                  "CallbackMetadata":{"Item":[{"Name":"Amount","Value":"n/a"},{"Name":"Extra","Value":{"x":1}}]}}}}
+                """);
+        assertNull(cb.metadata().amount());
+    }
+
+    @Test
+    void skipsUnknownFieldsAndReturnsNullWithoutStkCallback() throws IOException {
+        assertNull(StkCallbackParser.parse("""
+                {"Other":{"stkCallback":{"CheckoutRequestID":"c"}},"Body":{"somethingElse":[1,2,3]}}
+                """));
+
+        StkCallback cb = StkCallbackParser.parse("""
+                {"Meta":{"a":[{"b":1}]},"Body":{"x":1,"stkCallback":{"Extra":{"y":[2]},"CheckoutRequestID":"c","ResultCode":null}}}
+                """);
+        assertEquals("c", cb.checkoutRequestId());
+        assertNull(cb.resultCode());
+        assertFalse(cb.isSuccess());
+    }
+
+    @Test
+    void rejectsNonObjectPayload() {
+        assertThrows(IOException.class, () -> StkCallbackParser.parse("[]"));
+    }
+
+    @Test
+    void reportsMalformedJsonAsIOException() {
+        assertThrows(IOException.class, () -> StkCallbackParser.parse("{\"Body\":{\"stkCallback\":"));
+        assertThrows(IOException.class, () -> StkCallbackParser.parse(new byte[]{'{', (byte) 0xC3, '}'}));
+    }
+}
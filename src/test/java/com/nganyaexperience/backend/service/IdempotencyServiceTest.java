@@ -0,0 +1,123 @@
+package com.nganyaexperience.backend.service;
+
+import com.nganyaexperience.backend.entity.IdempotencyRecord;
+import com.nganyaexperience.backend.repository.IdempotencyRecordRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.ResponseEntity;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class IdempotencyServiceTest {
+
+    private IdempotencyRecordRepository repository;
+    private IdempotencyService service;
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(IdempotencyRecordRepository.class);
+        service = new IdempotencyService(repository, JsonMapper.builder().build(), 24, 60, 100);
+        when(repository.findById(anyString())).thenReturn(Optional.empty());
+        when(repository.claim(anyString(), any(), any())).thenReturn(1);
+    }
+
+    private ResponseEntity<?> call(String fingerprint, int status) {
+        return service.execute("booking", "k1", fingerprint, () -> {
+            runs.incrementAndGet();
+            return ResponseEntity.status(status).body(Map.of("ok", status));
+        });
+    }
+
+    @Test
+    void runsWithoutKey() {
+        service.execute("booking", null, "fp", () -> ResponseEntity.ok().build());
+        verifyNoInteractions(repository);
+    }
+
+    @Test
+    void claimsWithShortLeaseAndStoresWithFullTtl() {
+        Instant before = Instant.now();
+        call("fp", 201);
+
+        ArgumentCaptor<Instant> claimed = ArgumentCaptor.forClass(Instant.class);
+        verify(repository).claim(eq("booking:k1"), eq("fp"), claimed.capture());
+        assertTrue(claimed.getValue().isBefore(before.plus(2, ChronoUnit.MINUTES)));
+
+        ArgumentCaptor<Instant> stored = ArgumentCaptor.forClass(Instant.class);
+        verify(repository).complete(eq("booking:k1"), eq(201), anyString(), stored.capture());
+        assertTrue(stored.getValue().isAfter(before.plus(23, ChronoUnit.HOURS)));
+    }
+
+    @Test
+    void replaysStoredResponseWithoutRunningAgain() {
+        call("fp", 201);
+        ResponseEntity<?> replayed = call("fp", 201);
+
+        assertEquals(1, runs.get());
+        assertEquals(201, replayed.getStatusCode().value());
+        assertEquals("true", replayed.getHeaders().getFirst(IdempotencyService.REPLAYED_HEADER));
+    }
+
+    @Test
+    void rejectsKeyReusedForDifferentRequest() {
+        call("fp", 201);
+        assertEquals(422, call("other", 201).getStatusCode().value());
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void conflictsWhileFirstRequestIsInProgress() {
+        when(repository.claim(anyString(), any(), any())).thenReturn(0);
+        when(repository.takeOver(anyString(), any(), any(), any())).thenReturn(0);
+        when(repository.findById("booking:k1")).thenReturn(Optional.of(IdempotencyRecord.builder()
+                .id("booking:k1").fingerprint("fp").state(IdempotencyRecord.State.IN_PROGRESS)
+                .expiresAt(Instant.now().plusSeconds(30)).build()));
+
+        assertEquals(409, call("fp", 201).getStatusCode().value());
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    void takesOverExpiredLease() {
+        when(repository.claim(anyString(), any(), any())).thenReturn(0);
+        when(repository.takeOver(eq("booking:k1"), eq("fp"), any(), any())).thenReturn(1);
+
+        assertEquals(201, call("fp", 201).getStatusCode().value());
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void releasesKeyOnRetryableStatus() {
+        for (int status : new int[]{403, 409, 429, 503}) {
+            call("fp", status);
+        }
+        verify(repository, times(4)).release("booking:k1");
+        verify(repository, never()).complete(anyString(), anyInt(), any(), any());
+    }
+
+    @Test
+    void storesFinalBusinessError() {
+        call("fp", 400);
+        verify(repository).complete(eq("booking:k1"), eq(400), anyString(), any());
+        verify(repository, never()).release(anyString());
+    }
+
+    @Test
+    void releasesKeyWhenActionThrows() {
+        assertThrows(IllegalStateException.class, () -> service.execute("booking", "k1", "fp", () -> {
+            throw new IllegalStateException("boom");
+        }));
+        verify(repository).release("booking:k1");
+    }
+}
@@ -0,0 +1,162 @@
+package com.nganyaexperience.backend.service;
+
+import com.nganyaexperience.backend.entity.Booking;
+import com.nganyaexperience.backend.entity.Event;
+import com.nganyaexperience.backend.entity.MpesaCallbackInbox;
+import com.nganyaexperience.backend.entity.MpesaPayment;
+import com.nganyaexperience.backend.entity.TicketType;
+import com.nganyaexperience.backend.inventory.InventoryEngine;
+import com.nganyaexperience.backend.inventory.InventoryOwnerLock;
+import com.nganyaexperience.backend.repository.BookingRepository;
+import com.nganyaexperience.backend.repository.EventRepository;
+import com.nganyaexperience.backend.repository.MpesaCallbackInboxRepository;
+import com.nganyaexperience.backend.repository.MpesaPaymentRepository;
+import com.nganyaexperience.backend.repository.TicketTypeRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PaymentCallbackServiceTest {
+
+    private static final Long TICKET = 7L;
+    private static final Long BOOKING = 42L;
+    private static final String CHECKOUT_ID = "ws_CO_1";
+
+    private static final String SUCCESS = """
+            {"Body":{"stkCallback":{"MerchantRequestID":"m-1","CheckoutRequestID":"ws_CO_1","ResultCode":0,
+              "ResultDesc":"ok","CallbackMetadata":{"Item":[{"Name":"Amount","Value":100},
+              {"Name":"MpesaReceiptNumber","Value":"R1"},{"Name":"PhoneNumber","Value":254700000001}]}}}}
+            """;
+
+    private MpesaPaymentRepository paymentRepository;
+    private MpesaCallbackInboxRepository inboxRepository;
+    private BookingRepository bookingRepository;
+    private InventoryEngine inventory;
+    private PaymentCallbackService service;
+
+    // What the database guarantees: one winner for each conditional update
+    private final AtomicBoolean paid = new AtomicBoolean();
+    private final AtomicBoolean holdAttached = new AtomicBoolean(true);
+    private final List<String> ticketCodes = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeEach
+    void setUp() {
+        paymentRepository = mock(MpesaPaymentRepository.class);
+        inboxRepository = mock(MpesaCallbackInboxRepository.class);
+        bookingRepository = mock(BookingRepository.class);
+
+        TicketTypeRepository ticketTypeRepository = mock(TicketTypeRepository.class);
+        when(ticketTypeRepository.findAll()).thenReturn(List.of(TicketType.builder().id(TICKET).capacity(10).build()));
+        inventory = new InventoryEngine(ticketTypeRepository, bookingRepository, mock(JdbcTemplate.class),
+                mock(InventoryOwnerLock.class));
+        inventory.loadAll();
+        assertTrue(inventory.tryHold(TICKET, 1));
+
+        // Every transaction reads its own copy of the rows, all still PENDING
+        when(inboxRepository.findById(anyLong())).thenAnswer(inv -> Optional.of(MpesaCallbackInbox.received(SUCCESS.getBytes(StandardCharsets.UTF_8))));
+        when(bookingRepository.findById(BOOKING)).thenAnswer(inv -> Optional.of(pendingBooking()));
+        when(paymentRepository.findForUpdateByCheckoutRequestId(CHECKOUT_ID)).thenAnswer(inv -> Optional.of(pendingPayment()));
+        when(bookingRepository.markPaid(BOOKING)).thenAnswer(inv -> paid.compareAndSet(false, true) ? 1 : 0);
+        when(bookingRepository.detachHold(BOOKING)).thenAnswer(inv -> holdAttached.compareAndSet(true, false) ? 1 : 0);
+        when(bookingRepository.save(any())).thenAnswer(inv -> {
+            Booking b = inv.getArgument(0);
+            if (b.getTicketCode() != null) ticketCodes.add(b.getTicketCode());
+            return b;
+        });
+
+        BookingService bookingService = new BookingService(bookingRepository, mock(EventRepository.class),
+                ticketTypeRepository, mock(EventCatalogCache.class), inventory);
+        service = new PaymentCallbackService(paymentRepository, inboxRepository, bookingService,
+                mock(PaymentStatusNotifier.class));
+    }
+
+    @Test
+    void concurrentDuplicateCallbacksSellTheSeatOnce() throws Exception {
+        CyclicBarrier bothRunning = new CyclicBarrier(2);
+        AtomicInteger failed = new AtomicInteger();
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<?>> runs = new ArrayList<>();
+            for (long inboxId = 1; inboxId <= 2; inboxId++) {
+                long id = inboxId;
+                runs.add(pool.submit(() -> {
+                    bothRunning.await(5, TimeUnit.SECONDS);
+                    try {
+                        service.processInboxEntry(id);
+                    } catch (RuntimeException e) {
+                        // The loser's transaction rolls back; the inbox retries it and finds the booking PAID
+                        failed.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> run : runs) run.get(10, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(1, inventory.sold(TICKET));
+        assertEquals(0, inventory.held(TICKET));
+        assertEquals(9, inventory.seatsLeft(TICKET));
+        assertEquals(List.of("C-001"), ticketCodes);
+        assertEquals(1, failed.get());
+    }
+
+    @Test
+    void redeliveryAfterPaymentIsANoOp() throws Exception {
+        service.processInboxEntry(1L);
+
+        Booking confirmed = pendingBooking();
+        confirmed.setPaymentStatus(Booking.PaymentStatus.PAID);
+        confirmed.setTicketCode("C-001");
+        when(bookingRepository.findById(BOOKING)).thenReturn(Optional.of(confirmed));
+        MpesaPayment settled = pendingPayment();
+        settled.setStatus(MpesaPayment.Status.PAID);
+        when(paymentRepository.findForUpdateByCheckoutRequestId(CHECKOUT_ID)).thenReturn(Optional.of(settled));
+
+        service.processInboxEntry(2L);
+
+        assertEquals(1, inventory.sold(TICKET));
+        verify(bookingRepository, times(1)).markPaid(BOOKING);
+    }
+
+    private static Booking pendingBooking() {
+        return Booking.builder()
+                .id(BOOKING)
+                .event(Event.builder().id(1L).title("Concert").build())
+                .ticketType(TicketType.builder().id(TICKET).build())
+                .quantity(1)
+                .paymentStatus(Booking.PaymentStatus.PENDING)
+                .holdExpiresAt(Instant.now().plusSeconds(60))
+                .build();
+    }
+
+    private static MpesaPayment pendingPayment() {
+        return MpesaPayment.builder()
+                .id(1L)
+                .booking(Booking.builder().id(BOOKING).build())
+                .checkoutRequestId(CHECKOUT_ID)
+                .amount(100.0)
+                .status(MpesaPayment.Status.PENDING)
+                .build();
+    }
+}
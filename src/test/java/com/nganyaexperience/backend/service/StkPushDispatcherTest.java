@@ -0,0 +1,220 @@
+package com.nganyaexperience.backend.service;
+
+import com.nganyaexperience.backend.entity.Booking;
+import com.nganyaexperience.backend.entity.MpesaPayment;
+import com.nganyaexperience.backend.entity.StkPushQueueEntry;
+import com.nganyaexperience.backend.payments.DarajaUnavailableException;
+import com.nganyaexperience.backend.payments.PaymentRoutingRegistry;
+import com.nganyaexperience.backend.repository.BookingRepository;
+import com.nganyaexperience.backend.repository.MpesaPaymentRepository;
+import com.nganyaexperience.backend.repository.StkPushQueueRepository;
+import org.apache.hc.client5.http.ConnectTimeoutException;
+import org.apache.hc.core5.http.ConnectionRequestTimeoutException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.net.ConnectException;
+import java.net.http.HttpTimeoutException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class StkPushDispatcherTest {
+
+    private static final String SHORTCODE = "174379";
+
+    private StkPushQueueRepository queueRepository;
+    private BookingRepository bookingRepository;
+    private MpesaPaymentRepository paymentRepository;
+    private DarajaService darajaService;
+    private StkPushDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() {
+        queueRepository = mock(StkPushQueueRepository.class);
+        bookingRepository = mock(BookingRepository.class);
+        paymentRepository = mock(MpesaPaymentRepository.class);
+        darajaService = mock(DarajaService.class);
+        // Burst 3, refill too slow to matter during a test
+        dispatcher = new StkPushDispatcher(queueRepository, bookingRepository, paymentRepository,
+                mock(PaymentRoutingRegistry.class), darajaService, true, 0.001, 3, 5, 60, 2, 24);
+
+        when(queueRepository.expireLeases(any(), anyInt())).thenReturn(List.of());
+        when(paymentRepository.findByBooking_Id(any())).thenReturn(Optional.empty());
+        when(paymentRepository.save(any())).thenAnswer(inv -> inv.getArgument(0));
+    }
+
+    // ---------------------------
+    // TOKEN BUCKET
+    // ---------------------------
+
+    @Test
+    void sendsImmediatelyUntilTheBurstIsUsed() {
+        assertTrue(dispatcher.trySendNow(SHORTCODE));
+        assertTrue(dispatcher.trySendNow(SHORTCODE));
+        assertTrue(dispatcher.trySendNow(SHORTCODE));
+        assertFalse(dispatcher.trySendNow(SHORTCODE));
+
+        // Buckets are per shortcode
+        assertTrue(dispatcher.trySendNow("600000"));
+    }
+
+    @Test
+    void queuesBehindPushesAlreadyWaiting() {
+        when(queueRepository.existsByShortcodeAndStatus(SHORTCODE, StkPushQueueEntry.Status.QUEUED)).thenReturn(true);
+        assertFalse(dispatcher.trySendNow(SHORTCODE));
+    }
+
+    @Test
+    void throttledEmptiesTheBucket() {
+        dispatcher.throttled(SHORTCODE);
+        assertFalse(dispatcher.trySendNow(SHORTCODE));
+    }
+
+    @Test
+    void dispatchClaimsNoMoreThanTheTokensLeft() {
+        assertTrue(dispatcher.trySendNow(SHORTCODE));
+        when(queueRepository.findDueShortcodes(any())).thenReturn(List.of(SHORTCODE));
+        when(queueRepository.claim(eq(SHORTCODE), any(), any(), anyInt())).thenReturn(List.of());
+
+        dispatcher.dispatch();
+
+        verify(queueRepository).claim(eq(SHORTCODE), any(), any(), eq(2));
+    }
+
+    // ---------------------------
+    // RETRY CLASSIFICATION
+    // ---------------------------
+
+    @Test
+    void classifiesFailuresByWhetherDarajaMayHaveSeenThePush() {
+        Throwable refused = new ResourceAccessException("refused", new ConnectException("Connection refused"));
+        Throwable connectTimeout = new ResourceAccessException("connect", new ConnectTimeoutException("Connect timed out"));
+        Throwable poolWait = new ResourceAccessException("pool", new ConnectionRequestTimeoutException("Lease timed out"));
+        Throwable readTimeout = new ResourceAccessException("timeout", new HttpTimeoutException("request timed out"));
+        Throwable serverError = HttpServerErrorException.create(HttpStatus.INTERNAL_SERVER_ERROR, "Internal Server Error",
+                HttpHeaders.EMPTY, new byte[0], null);
+        Throwable breakerOpen = new DarajaUnavailableException("open", 5);
+
+        assertTrue(StkPushDispatcher.neverSent(refused));
+        assertTrue(StkPushDispatcher.neverSent(connectTimeout));
+        assertTrue(StkPushDispatcher.neverSent(poolWait));
+        assertTrue(StkPushDispatcher.neverSent(breakerOpen));
+        assertFalse(StkPushDispatcher.neverSent(readTimeout));
+
+        assertTrue(StkPushDispatcher.mayHaveReachedDaraja(readTimeout));
+        assertTrue(StkPushDispatcher.mayHaveReachedDaraja(serverError));
+        assertFalse(StkPushDispatcher.mayHaveReachedDaraja(refused));
+        assertFalse(StkPushDispatcher.mayHaveReachedDaraja(breakerOpen));
+    }
+
+    @Test
+    void retriesPushesThatNeverReachedDaraja() {
+        dispatchOne(CompletableFuture.failedFuture(
+                new ResourceAccessException("refused", new ConnectException("Connection refused"))));
+
+        verify(queueRepository).retryLater(eq(1L), any(), contains("refused"));
+        verify(queueRepository, never()).finish(anyLong(), any(), any());
+    }
+
+    @Test
+    void retriesAndPausesTheShortcodeOn429() {
+        dispatchOne(CompletableFuture.failedFuture(HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS,
+                "Too Many Requests", HttpHeaders.EMPTY, new byte[0], null)));
+
+        verify(queueRepository).retryLater(eq(1L), any(), any());
+        assertFalse(dispatcher.trySendNow(SHORTCODE));
+    }
+
+    @Test
+    void neverResendsAfterATimeout() {
+        dispatchOne(CompletableFuture.failedFuture(
+                new ResourceAccessException("timeout", new HttpTimeoutException("request timed out"))));
+
+        verify(queueRepository, never()).retryLater(anyLong(), any(), any());
+        verify(queueRepository).finish(eq(1L), eq(StkPushQueueEntry.Status.UNKNOWN), any());
+
+        // Payment recorded without a CheckoutRequestID, for the callback / reconciler to settle
+        ArgumentCaptor<MpesaPayment> payment = ArgumentCaptor.forClass(MpesaPayment.class);
+        verify(paymentRepository).save(payment.capture());
+        assertNull(payment.getValue().getCheckoutRequestId());
+        assertEquals(MpesaPayment.Status.PENDING, payment.getValue().getStatus());
+    }
+
+    @Test
+    void neverResendsAfterAServerError() {
+        dispatchOne(CompletableFuture.failedFuture(HttpServerErrorException.create(HttpStatus.BAD_GATEWAY,
+                "Bad Gateway", HttpHeaders.EMPTY, new byte[0], null)));
+
+        verify(queueRepository, never()).retryLater(anyLong(), any(), any());
+        verify(queueRepository).finish(eq(1L), eq(StkPushQueueEntry.Status.UNKNOWN), any());
+    }
+
+    @Test
+    void failsOnOtherClientErrors() {
+        dispatchOne(CompletableFuture.failedFuture(HttpClientErrorException.create(HttpStatus.BAD_REQUEST,
+                "Bad Request", HttpHeaders.EMPTY, new byte[0], null)));
+
+        verify(queueRepository, never()).retryLater(anyLong(), any(), any());
+        verify(queueRepository).finish(eq(1L), eq(StkPushQueueEntry.Status.FAILED), any());
+    }
+
+    @Test
+    void expiredSenderLeaseBecomesUnknown() {
+        StkPushQueueEntry entry = entry();
+        when(queueRepository.expireLeases(any(), anyInt())).thenReturn(List.of(1L));
+        when(queueRepository.findById(1L)).thenReturn(Optional.of(entry));
+        when(bookingRepository.findById(10L)).thenReturn(Optional.of(pendingBooking()));
+        when(queueRepository.findDueShortcodes(any())).thenReturn(List.of());
+
+        dispatcher.dispatch();
+
+        verify(queueRepository).finish(eq(1L), eq(StkPushQueueEntry.Status.UNKNOWN), any());
+        verify(queueRepository, never()).claim(any(), any(), any(), anyInt());
+        verifyNoInteractions(darajaService);
+    }
+
+    @Test
+    void recordsTheCheckoutRequestIdOfAnAcceptedPush() {
+        dispatchOne(CompletableFuture.completedFuture(Map.of(
+                "CheckoutRequestID", "ws_CO_1", "MerchantRequestID", "m-1")));
+
+        verify(queueRepository).markSent(eq(1L), any(), eq("ws_CO_1"));
+    }
+
+    private void dispatchOne(CompletableFuture<Map<String, Object>> outcome) {
+        StkPushQueueEntry entry = entry();
+        when(queueRepository.findDueShortcodes(any())).thenReturn(List.of(SHORTCODE));
+        when(queueRepository.claim(eq(SHORTCODE), any(), any(), anyInt())).thenReturn(List.of(1L));
+        when(queueRepository.findAllById(List.of(1L))).thenReturn(new ArrayList<>(List.of(entry)));
+        when(bookingRepository.findById(10L)).thenReturn(Optional.of(pendingBooking()));
+        when(darajaService.stkPushAsync(any(), any(), anyInt(), any(), any())).thenReturn(outcome);
+
+        dispatcher.dispatch();
+    }
+
+    private static StkPushQueueEntry entry() {
+        Instant now = Instant.now();
+        return StkPushQueueEntry.builder()
+                .id(1L).bookingId(10L).shortcode(SHORTCODE).phone("254700000001").amount(100)
+                .status(StkPushQueueEntry.Status.SENDING).attempts(0).nextAttemptAt(now).enqueuedAt(now)
+                .build();
+    }
+
+    private static Booking pendingBooking() {
+        return Booking.builder().id(10L).paymentStatus(Booking.PaymentStatus.PENDING).build();
+    }
+}